@@ -4,24 +4,31 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
-import java.util.StringTokenizer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.auth.login.LoginException;
 
 import bot.modules.*;
+import bot.CommandLimiter.Verdict;
 import bot.util.*;
+import bot.util.RestScheduler.Priority;
 import net.dv8tion.jda.core.AccountType;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.JDABuilder;
 import net.dv8tion.jda.core.entities.Game;
 import net.dv8tion.jda.core.events.ReadyEvent;
-import net.dv8tion.jda.core.events.message.MessageEmbedEvent;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberNickChangeEvent;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageEmbedEvent;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.core.events.self.SelfUpdateNameEvent;
 import net.dv8tion.jda.core.exceptions.RateLimitedException;
-import net.dv8tion.jda.core.hooks.ListenerAdapter;
 
 // https://github.com/reactiflux/discord-irc/wiki/Creating-a-discord-bot-&-getting-a-token
 // ^ to add the bot to a server
@@ -34,13 +41,53 @@ import net.dv8tion.jda.core.hooks.ListenerAdapter;
  * @author Namdrib
  *
  */
-public class Bot extends ListenerAdapter
+public class Bot
 {
 	public Map<String, Module> modules;
 
+	// modules by identifier, ignoring case
+	private final Trie<Module> router = new Trie<>();
+
+	// Delivers JDA's events to whatever subscribed to them
+	private final BotEventManager events = new BotEventManager();
+
+	// Read-only invocations waiting or running, by flightKey(...)
+	private final Set<String> reads = ConcurrentHashMap.newKeySet();
+	// Added to an invocation that shares another's reply (eyes)
+	private static final String sharedReaction = "\uD83D\uDC40";
+	private final AtomicLong sharedReads = new AtomicLong();
+
+	// Sheds invocations over the per-user, per-guild and per-module limits
+	private final CommandLimiter limiter = new CommandLimiter();
+
+	// Runs embed handlers, away from commands
+	private final EmbedPipeline embeds = new EmbedPipeline();
+
+	// Runs commands in parallel across guilds, in order within each guild
+	private final KeyedExecutor commands = new KeyedExecutor(
+			Executors.newFixedThreadPool(
+					Config.getInt("commands.threads",
+							Math.max(4, Runtime.getRuntime()
+									.availableProcessors())),
+					Workers.daemonThreads("commands")),
+			Config.getInt("commands.maxQueuedPerGuild", 20));
+
+	// Our user ID, for recognising mentions of the bot
+	private volatile String selfId;
+
 	public Bot()
 	{
 		modules = new HashMap<>();
+
+		events.subscribe(ReadyEvent.class, this::onReady);
+		events.subscribe(SelfUpdateNameEvent.class, this::onSelfUpdateName);
+		events.subscribe(GuildMemberNickChangeEvent.class,
+				this::onGuildMemberNickChange);
+		events.subscribe(GuildLeaveEvent.class, this::onGuildLeave);
+		events.subscribe(GuildMessageReceivedEvent.class,
+				this::onGuildMessageReceived);
+		events.subscribe(GuildMessageEmbedEvent.class,
+				this::onGuildMessageEmbed);
 	}
 
 	// Try to read the bot token
@@ -78,6 +125,8 @@ public class Bot extends ListenerAdapter
 	 * 
 	 * Links a Module to the bot for future access. the Module will be invoked
 	 * if the first token after tagging the bot is one of the entries in modules
+	 * (ignoring case). The Module's declared commands are compiled for lookup
+	 * here, so it must have declared them already
 	 * 
 	 * @param module
 	 *            the Module to link
@@ -100,6 +149,11 @@ public class Bot extends ListenerAdapter
 		else
 		{
 			modules.put(identifier, module);
+			router.put(identifier, module);
+			for (Command command : module.commandList)
+			{
+				module.commands.put(command.getName(), command);
+			}
 			result = "Successfully registered " + moduleName + " as "
 					+ identifier;
 			out = true;
@@ -109,80 +163,349 @@ public class Bot extends ListenerAdapter
 		return out;
 	}
 
+	/**
+	 * @return human-readable statistics on command processing
+	 */
+	public String commandStats()
+	{
+		return commands.stats() + ", identical reads shared "
+				+ sharedReads.get();
+	}
+
+	/**
+	 * @return human-readable counts of the events received
+	 */
+	public String eventStats()
+	{
+		return events.stats();
+	}
+
+	/**
+	 * @return human-readable counts of invocations allowed and shed
+	 */
+	public String limitStats()
+	{
+		return limiter.stats();
+	}
+
+	/**
+	 * @return human-readable statistics on embed handling
+	 */
+	public String embedStats()
+	{
+		return embeds.stats();
+	}
+
+	/**
+	 * Get the bot's embed pipeline, to register EmbedHandlers. Register while
+	 * modules are being loaded, i.e. before the bot connects
+	 * 
+	 * @return the embed pipeline
+	 */
+	public EmbedPipeline getEmbeds()
+	{
+		return embeds;
+	}
+
+	/**
+	 * Get the bot's event manager, to subscribe to JDA's events. Subscribe
+	 * while modules are being loaded, i.e. before the bot connects
+	 * 
+	 * @return the event manager
+	 */
+	public BotEventManager getEvents()
+	{
+		return events;
+	}
+
 	public static void main(String[] args) throws LoginException,
 			IllegalArgumentException, RateLimitedException
 	{
 		Bot bot = new Bot();
 
+		// Load available modules
+		new HelpModule(bot, "help");
+		new ListModule(bot, "list");
+		new RoleModule(bot, "role");
+		new OzbModule(bot, "ozb");
+		new StatsModule(bot, "stats");
+
 		// Start the bot
 		final String botToken = bot.getBotToken();
 		JDA api = new JDABuilder(AccountType.BOT).setToken(botToken)
-				.addEventListener(bot).buildAsync();
+				.setEventManager(bot.events).buildAsync();
 
 		// Set the game to a useful message
 		api.getPresence().setGame(Game.playing(Global.prefix + " help"));
+	}
 
-		// Load available modules
-		new HelpModule(bot, "help");
-		new ListModule(bot, "list");
-		new RoleModule(bot, "role");
-		new OzbModule(bot, "ozb");
+	private void onReady(ReadyEvent e)
+	{
+		selfId = e.getJDA().getSelfUser().getId();
+		Helpers.forgetBotNames();
+	}
+
+	private void onSelfUpdateName(SelfUpdateNameEvent e)
+	{
+		// Our effective name is our username wherever we have no nickname
+		Helpers.forgetBotNames();
+	}
+
+	private void onGuildMemberNickChange(GuildMemberNickChangeEvent e)
+	{
+		if (e.getUser().getIdLong() == e.getJDA().getSelfUser().getIdLong())
+		{
+			Helpers.forgetBotName(e.getGuild());
+		}
 	}
 
-	@Override
-	public void onMessageEmbed(MessageEmbedEvent event)
+	private void onGuildLeave(GuildLeaveEvent e)
 	{
-		// System.out.println("MESSAGE EMBED EVENT");
+		Helpers.forgetBotName(e.getGuild());
 	}
 
-	@Override
-	public void onGuildMessageEmbed(GuildMessageEmbedEvent event)
+	private void onGuildMessageEmbed(GuildMessageEmbedEvent e)
 	{
-		// System.out.println("GUILD MESSAGE EMBED EVENT");
+		// Embeds Discord added after the message was sent
+		embeds.offer(e.getChannel(), e.getMessageIdLong(), null,
+				e.getMessageEmbeds());
 	}
 
-	@Override
-	public void onGuildMessageReceived(GuildMessageReceivedEvent e)
+	/**
+	 * Find where the bot's prefix ends in a message, if the message starts
+	 * with one. Accepts a mention of the bot (`<@id>` or `<@!id>`) or its
+	 * display name typed out (`@name`), followed by whitespace or the end of
+	 * the message. This is called for every message, so it works on the raw
+	 * content and does not allocate
+	 * 
+	 * @param e
+	 *            the message
+	 * @return index in the raw content just after the prefix, or -1 if the
+	 *         message does not start with the prefix
+	 */
+	private int prefixEnd(GuildMessageReceivedEvent e)
 	{
-		if (e.getMessage().getEmbeds() != null
-				&& !e.getMessage().getEmbeds().isEmpty())
+		String raw = e.getMessage().getContentRaw();
+		if (raw.length() < 2)
 		{
-			Module m = modules.get("lyrics");
-			if (m != null)
+			return -1;
+		}
+
+		int end = -1;
+		if (raw.charAt(0) == '<' && raw.charAt(1) == '@')
+		{
+			String id = selfId;
+			if (id == null)
 			{
-				m.handle(e, new StringTokenizer(
-						e.getMessage().getContentDisplay()));
+				id = selfId = e.getJDA().getSelfUser().getId();
+			}
+			int start = raw.length() > 2 && raw.charAt(2) == '!' ? 3 : 2;
+			if (raw.startsWith(id, start)
+					&& raw.length() > start + id.length()
+					&& raw.charAt(start + id.length()) == '>')
+			{
+				end = start + id.length() + 1;
+			}
+		}
+		else if (raw.charAt(0) == '@')
+		{
+			String name = Helpers.getBotName(e.getGuild());
+			if (raw.startsWith(name, 1))
+			{
+				end = 1 + name.length();
 			}
 		}
 
+		if (end < 0 || (end < raw.length()
+				&& !Character.isWhitespace(raw.charAt(end))))
+		{
+			return -1;
+		}
+		return end;
+	}
+
+	private void onGuildMessageReceived(GuildMessageReceivedEvent e)
+	{
 		// Do not respond to messages from other bots, including ourself
-		if (e.getAuthor().isBot()) return;
+		if (e.getAuthor().isBot())
+		{
+			embeds.ignore(e.getChannel(), e.getMessageIdLong());
+			return;
+		}
 
-		// Only continue if the bot was actually invoked
-		StringTokenizer st = new StringTokenizer(
-				e.getMessage().getContentDisplay());
-		if (!(st.hasMoreTokens() && st.nextToken()
-				.equals("@" + Helpers.getBotName(e.getGuild()))))
+		// Only continue if the bot was actually invoked. Otherwise, it's an
+		// ordinary message whose embeds may be of interest
+		int prefixEnd = prefixEnd(e);
+		if (prefixEnd < 0)
 		{
+			embeds.offer(e.getChannel(), e.getMessageIdLong(),
+					e.getMessage().getContentRaw(), e.getMessage().getEmbeds());
 			return;
 		}
+		// Links given to commands are dealt with by the command
+		embeds.ignore(e.getChannel(), e.getMessageIdLong());
 
-		// Proceed if a valid module was invoked
-		if (st.hasMoreTokens())
+		// Find the module named, so it can be charged for the invocation
+		String content = e.getMessage().getContentRaw();
+		int moduleStart = Trie.skipSpace(content, prefixEnd);
+		int moduleEnd = Trie.wordEnd(content, moduleStart);
+		Module m = router.get(content, moduleStart, moduleEnd);
+
+		// The reply to an identical read-only invocation already waiting or
+		// replying in this channel will do for this one too. This one only
+		// gets a reaction, so its sender knows it was seen. Reacting is a
+		// request of its own, so it's charged against the limits
+		String flight = m == null ? null : flightKey(e, content, moduleEnd, m);
+		if (flight != null && !reads.add(flight))
+		{
+			sharedReads.incrementAndGet();
+			if (limiter.check(e.getAuthor().getIdLong(),
+					e.getGuild().getIdLong(), m.identifier) == Verdict.ALLOW)
+			{
+				RestScheduler.submit(
+						RestScheduler.reactionRoute(e.getChannel()),
+						Priority.LOW,
+						e.getMessage().addReaction(sharedReaction));
+			}
+			return;
+		}
+
+		// Shed invocations from users, guilds or modules over their limits
+		Verdict verdict = limiter.check(e.getAuthor().getIdLong(),
+				e.getGuild().getIdLong(), m == null ? null : m.identifier);
+		if (verdict != Verdict.ALLOW)
+		{
+			land(flight);
+			if (verdict == Verdict.NOTIFY)
+			{
+				Helpers.send(e.getChannel(),
+						"You're sending commands too quickly, some are being ignored. Try again shortly",
+						Priority.LOW);
+			}
+			return;
+		}
+
+		// Run the command off the event thread, after any earlier commands
+		// from the same guild
+		if (!commands.submit(e.getGuild().getIdLong(), () -> {
+			try
+			{
+				// Some commands reply from asynchronous work after this
+				dispatch(e, content, moduleStart, moduleEnd, m)
+						.whenComplete((r, ex) -> land(flight));
+			}
+			catch (RuntimeException ex)
+			{
+				land(flight);
+				throw ex;
+			}
+		}))
+		{
+			land(flight);
+			Helpers.send(e.getChannel(),
+					"Too many commands waiting in this server, try again shortly",
+					Priority.LOW);
+		}
+	}
+
+	/**
+	 * Work out what identifies an invocation's reply: its guild, channel,
+	 * module, command and arguments (with whitespace normalised, and
+	 * mentions replaced by the names they mention, as the command will see
+	 * them)
+	 * 
+	 * @param e
+	 *            the message invoking the bot
+	 * @param content
+	 *            the message's raw content
+	 * @param moduleEnd
+	 *            where the module's identifier ends in content
+	 * @param m
+	 *            the module named
+	 * @return the key, or null if the command invoked is not read-only
+	 */
+	private static String flightKey(GuildMessageReceivedEvent e,
+			String content, int moduleEnd, Module m)
+	{
+		int commandStart = Trie.skipSpace(content, moduleEnd);
+		int commandEnd = Trie.wordEnd(content, commandStart);
+		Command command = m.commands.get(content, commandStart, commandEnd);
+		// No command means the module's help, which only reads
+		if (command != null && !command.isIdempotent())
 		{
-			String targetModule = st.nextToken();
-			if (modules.containsKey(targetModule))
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder().append(e.getGuild().getIdLong())
+				.append(':').append(e.getChannel().getIdLong()).append(':')
+				.append(m.identifier).append(':')
+				.append(command == null ? "" : command.getName());
+		int start = Trie.skipSpace(content, commandEnd);
+		while (start < content.length())
+		{
+			int end = Trie.wordEnd(content, start);
+			String name = content.charAt(start) == '<'
+					? CommandContext.mentionedName(e.getGuild(), content,
+							start, end)
+					: null;
+			key.append(' ');
+			if (name == null)
 			{
-				Module m = modules.get(targetModule);
-				m.handle(e, st);
+				key.append(content, start, end);
 			}
 			else
 			{
-				String msg = "No identifier " + targetModule + " exists. See `"
-						+ Global.prefix
-						+ " list` for a list of valid identifiers";
-				Helpers.send(e.getChannel(), msg);
+				key.append(name);
 			}
+			start = Trie.skipSpace(content, end);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Note that a read-only invocation's reply has been sent (or that it was
+	 * never run)
+	 * 
+	 * @param flight
+	 *            its flightKey(...), or null if it wasn't read-only
+	 */
+	private void land(String flight)
+	{
+		if (flight != null)
+		{
+			reads.remove(flight);
+		}
+	}
+
+	/**
+	 * Hand an invocation to the module it names
+	 * 
+	 * @param e
+	 *            the message invoking the bot
+	 * @param content
+	 *            the message's raw content
+	 * @param moduleStart
+	 *            where the module's identifier starts in content
+	 * @param moduleEnd
+	 *            where the module's identifier ends in content
+	 * @param m
+	 *            the module named, or null if there is none
+	 * @return a future completed once the reply has been sent
+	 */
+	private CompletableFuture<Void> dispatch(GuildMessageReceivedEvent e,
+			String content, int moduleStart, int moduleEnd, Module m)
+	{
+		// Proceed if a valid module was invoked
+		if (m != null)
+		{
+			return m.handle(e, content, moduleEnd);
+		}
+		else if (moduleStart < content.length())
+		{
+			String msg = "No identifier "
+					+ content.substring(moduleStart, moduleEnd) + " exists. See `"
+					+ Global.prefix + " list` for a list of valid identifiers";
+			Helpers.send(e.getChannel(), msg);
 		}
 		else
 		{
@@ -191,5 +514,6 @@ public class Bot extends ListenerAdapter
 					+ Global.prefix + " list` for a list of valid identifiers";
 			Helpers.send(e.getChannel(), msg);
 		}
+		return CompletableFuture.completedFuture(null);
 	}
 }
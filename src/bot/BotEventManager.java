@@ -0,0 +1,132 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.hooks.EventListener;
+import net.dv8tion.jda.core.hooks.IEventManager;
+
+/**
+ * Delivers JDA's events only to handlers that asked for that type of event.
+ * JDA's default manager passes every gateway event (typing, presence, voice,
+ * ...) through each listener's chain of instanceof checks; here an event the
+ * bot doesn't handle costs one map lookup and is dropped.
+ *
+ * Handlers subscribe to exact event classes, e.g. RoleCreateEvent, not a
+ * superclass such as GenericRoleEvent. They run on JDA's event thread, so
+ * anything slow should be handed off (see KeyedExecutor, Workers). How many
+ * events of each type were dispatched or ignored is reported by stats()
+ *
+ * @author Namdrib
+ *
+ */
+public class BotEventManager implements IEventManager
+{
+	private final Map<Class<?>, List<Consumer<Event>>>	handlers	= new ConcurrentHashMap<>();
+	private final Map<Class<?>, AtomicLong>				dispatched	= new ConcurrentHashMap<>();
+	private final AtomicLong							ignored		= new AtomicLong();
+
+	// Listeners registered the JDA way, which are given every event
+	private final List<Object>							listeners	= new CopyOnWriteArrayList<>();
+
+	/**
+	 * Call handler for every event of type
+	 * 
+	 * @param type
+	 *            the exact class of the events
+	 * @param handler
+	 *            what to do with each event
+	 */
+	public <T extends Event> void subscribe(Class<T> type,
+			Consumer<? super T> handler)
+	{
+		dispatched.computeIfAbsent(type, k -> new AtomicLong());
+		handlers.computeIfAbsent(type, k -> new CopyOnWriteArrayList<>())
+				.add(e -> handler.accept(type.cast(e)));
+	}
+
+	@Override
+	public void handle(Event event)
+	{
+		for (Object listener : listeners)
+		{
+			run(() -> ((EventListener) listener).onEvent(event));
+		}
+
+		List<Consumer<Event>> subscribed = handlers.get(event.getClass());
+		if (subscribed == null)
+		{
+			ignored.incrementAndGet();
+			return;
+		}
+		dispatched.get(event.getClass()).incrementAndGet();
+		for (Consumer<Event> handler : subscribed)
+		{
+			run(() -> handler.accept(event));
+		}
+	}
+
+	/**
+	 * Run a handler, so one failing doesn't stop the others
+	 */
+	private static void run(Runnable handler)
+	{
+		try
+		{
+			handler.run();
+		}
+		catch (RuntimeException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+
+	@Override
+	public void register(Object listener)
+	{
+		if (!(listener instanceof EventListener))
+		{
+			throw new IllegalArgumentException(
+					"Listener must implement EventListener");
+		}
+		listeners.add(listener);
+	}
+
+	@Override
+	public void unregister(Object listener)
+	{
+		listeners.remove(listener);
+	}
+
+	@Override
+	public List<Object> getRegisteredListeners()
+	{
+		return new ArrayList<>(listeners);
+	}
+
+	/**
+	 * @return human-readable counts of events dispatched per type, and of
+	 *         events nothing subscribed to
+	 */
+	public String stats()
+	{
+		Map<String, Long> counts = new TreeMap<>();
+		for (Map.Entry<Class<?>, AtomicLong> entry : dispatched.entrySet())
+		{
+			counts.put(entry.getKey().getSimpleName(), entry.getValue().get());
+		}
+		String out = "";
+		for (Map.Entry<String, Long> entry : counts.entrySet())
+		{
+			out += entry.getKey() + " " + entry.getValue() + ", ";
+		}
+		return out + "ignored " + ignored.get();
+	}
+}
@@ -0,0 +1,111 @@
+package bot;
+
+import java.util.function.Consumer;
+
+/**
+ * A command a Module declares in setCommandList(): its name, how many
+ * arguments it takes and what to do when invoked. Names are matched
+ * case-insensitively, but are shown to users as declared (e.g. "addN")
+ * 
+ * @author Namdrib
+ *
+ */
+public final class Command
+{
+	/**
+	 * Use as maxArgs for commands taking any number of arguments
+	 */
+	public static final int					ANY	= Integer.MAX_VALUE;
+
+	private final String					name;
+	private final int						minArgs;
+	private final int						maxArgs;
+	private final String					usage;
+	private final boolean					idempotent;
+	private final Consumer<CommandContext>	handler;
+
+	/**
+	 * @param name
+	 *            the command's name, as shown to users
+	 * @param minArgs
+	 *            the fewest arguments the command accepts
+	 * @param maxArgs
+	 *            the most arguments the command accepts, or ANY
+	 * @param usage
+	 *            the command and its arguments, shown when it is invoked with
+	 *            the wrong number of arguments (e.g. "add ROLE")
+	 * @param handler
+	 *            carries out the command
+	 */
+	public Command(String name, int minArgs, int maxArgs, String usage,
+			Consumer<CommandContext> handler)
+	{
+		this(name, minArgs, maxArgs, usage, false, handler);
+	}
+
+	/**
+	 * @param name
+	 *            the command's name, as shown to users
+	 * @param minArgs
+	 *            the fewest arguments the command accepts
+	 * @param maxArgs
+	 *            the most arguments the command accepts, or ANY
+	 * @param usage
+	 *            the command and its arguments (e.g. "add ROLE")
+	 * @param idempotent
+	 *            true if the command only reads, i.e. running it twice in a
+	 *            row gives the same reply twice and changes nothing
+	 * @param handler
+	 *            carries out the command
+	 */
+	public Command(String name, int minArgs, int maxArgs, String usage,
+			boolean idempotent, Consumer<CommandContext> handler)
+	{
+		this.name = name;
+		this.minArgs = minArgs;
+		this.maxArgs = maxArgs;
+		this.usage = usage;
+		this.idempotent = idempotent;
+		this.handler = handler;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public String getUsage()
+	{
+		return usage;
+	}
+
+	/**
+	 * @return true iff the command only reads, so identical invocations may
+	 *         share one reply
+	 */
+	public boolean isIdempotent()
+	{
+		return idempotent;
+	}
+
+	/**
+	 * @param count
+	 *            a number of arguments
+	 * @return true iff the command accepts count arguments
+	 */
+	public boolean accepts(int count)
+	{
+		return count >= minArgs && count <= maxArgs;
+	}
+
+	/**
+	 * Carry out the command
+	 * 
+	 * @param ctx
+	 *            the context of this invocation
+	 */
+	public void run(CommandContext ctx)
+	{
+		handler.accept(ctx);
+	}
+}
@@ -0,0 +1,272 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import bot.util.Trie;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.core.managers.GuildController;
+
+/**
+ * Everything a Module needs to know about a single command invocation. A new
+ * context is created for every command, and it is never modified afterwards,
+ * so one Module instance can serve any number of commands at the same time
+ * (e.g. from different guilds, or on different worker threads). Arguments
+ * are only split out of the message if a command asks for them
+ *
+ * @author Namdrib
+ *
+ */
+public final class CommandContext
+{
+	private final GuildMessageReceivedEvent	event;
+	private final Message					message;
+	private final Member					member;
+	private final MessageChannel			channel;
+	private final Guild						guild;
+	private final GuildController			guildController;
+	private final String					content;
+	private final int						argumentsStart;
+	private final int						argumentCount;
+
+	// Split out of content the first time they are asked for
+	private volatile List<String>			arguments;
+
+	// Completed once the command's reply has been sent
+	private final CompletableFuture<Void>	replied		= new CompletableFuture<>();
+	private volatile boolean				repliesLater;
+
+	/**
+	 * Capture the state of an invocation
+	 *
+	 * @param e
+	 *            the guild message received event that invoked the command
+	 * @param content
+	 *            the message's content
+	 * @param argumentsStart
+	 *            where the command's whitespace-separated arguments start in
+	 *            content
+	 */
+	public CommandContext(GuildMessageReceivedEvent e, String content,
+			int argumentsStart)
+	{
+		event = e;
+		message = e.getMessage();
+		member = e.getMember();
+		channel = e.getChannel();
+		guild = e.getGuild();
+		guildController = guild.getController();
+		this.content = content;
+		this.argumentsStart = argumentsStart;
+		argumentCount = countArguments(content, argumentsStart);
+	}
+
+	/**
+	 * Count the words in content from start, without splitting it
+	 * 
+	 * @param content
+	 *            a message's content
+	 * @param start
+	 *            where to start counting
+	 * @return the number of whitespace-separated words from start onwards
+	 */
+	public static int countArguments(String content, int start)
+	{
+		int count = 0;
+		for (int i = Trie.skipSpace(content, start); i < content
+				.length(); i = Trie.skipSpace(content, Trie.wordEnd(content, i)))
+		{
+			count++;
+		}
+		return count;
+	}
+
+	public GuildMessageReceivedEvent getEvent()
+	{
+		return event;
+	}
+
+	public Message getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * @return the member who invoked the command
+	 */
+	public Member getMember()
+	{
+		return member;
+	}
+
+	/**
+	 * @return the channel in which the command was invoked. Replies go here
+	 */
+	public MessageChannel getChannel()
+	{
+		return channel;
+	}
+
+	public Guild getGuild()
+	{
+		return guild;
+	}
+
+	public GuildController getGuildController()
+	{
+		return guildController;
+	}
+
+	/**
+	 * @return the (unmodifiable) arguments following the command, in order.
+	 *         Mentions of roles, members and channels (which arrive as
+	 *         `<@&id>`, `<@id>` and `<#id>`) are replaced by the name of what
+	 *         they mention, so `role add @Role` works as `role add Role` does
+	 */
+	public List<String> getArguments()
+	{
+		List<String> args = arguments;
+		if (args == null)
+		{
+			List<String> split = new ArrayList<>(argumentCount);
+			for (int i = Trie.skipSpace(content, argumentsStart); i < content
+					.length(); i = Trie.skipSpace(content, i))
+			{
+				int end = Trie.wordEnd(content, i);
+				String name = content.charAt(i) == '<'
+						? mentionedName(guild, content, i, end) : null;
+				split.add(name == null ? content.substring(i, end) : name);
+				i = end;
+			}
+			arguments = args = Collections.unmodifiableList(split);
+		}
+		return args;
+	}
+
+	/**
+	 * Resolve a mention in raw content to the name it is displayed with
+	 * (without the leading @ or #)
+	 * 
+	 * @param guild
+	 *            the guild the mention was made in
+	 * @param s
+	 *            a message's raw content
+	 * @param start
+	 *            start of a word in s
+	 * @param end
+	 *            end of the word
+	 * @return the name of the role, member or channel mentioned by the word,
+	 *         or null if it isn't a mention of one in guild
+	 */
+	static String mentionedName(Guild guild, String s, int start, int end)
+	{
+		if (end - start < 4 || s.charAt(start) != '<'
+				|| s.charAt(end - 1) != '>')
+		{
+			return null;
+		}
+		// <@id> and <@!id> mention members, <@&id> roles, <#id> channels
+		int i = start + 1;
+		char kind = s.charAt(i++);
+		if (kind == '@' && (s.charAt(i) == '&' || s.charAt(i) == '!'))
+		{
+			kind = s.charAt(i++);
+		}
+		else if (kind != '@' && kind != '#')
+		{
+			return null;
+		}
+
+		long id = 0;
+		if (i == end - 1)
+		{
+			return null;
+		}
+		for (; i < end - 1; i++)
+		{
+			char c = s.charAt(i);
+			if (c < '0' || c > '9' || id > (Long.MAX_VALUE - 9) / 10)
+			{
+				return null;
+			}
+			id = id * 10 + (c - '0');
+		}
+
+		switch (kind)
+		{
+			case '&':
+				Role role = guild.getRoleById(id);
+				return role == null ? null : role.getName();
+			case '#':
+				TextChannel channel = guild.getTextChannelById(id);
+				return channel == null ? null : channel.getName();
+			default:
+				Member member = guild.getMemberById(id);
+				return member == null ? null : member.getEffectiveName();
+		}
+	}
+
+	/**
+	 * @return the number of arguments following the command
+	 */
+	public int getArgumentCount()
+	{
+		return argumentCount;
+	}
+
+	/**
+	 * @return true iff at least one argument follows the command
+	 */
+	public boolean hasArguments()
+	{
+		return argumentCount > 0;
+	}
+
+	/**
+	 * @return the first argument following the command, or null if there is
+	 *         none
+	 */
+	public String getFirstArgument()
+	{
+		return argumentCount == 0 ? null : getArguments().get(0);
+	}
+
+	/**
+	 * Note that the command replies once some asynchronous work finishes,
+	 * rather than before its handler returns. Must be called by the handler.
+	 * Identical read-only invocations keep sharing this one's reply until
+	 * then
+	 * 
+	 * @param reply
+	 *            completed (either way) once the reply has been sent
+	 */
+	public void replyLater(CompletionStage<?> reply)
+	{
+		repliesLater = true;
+		reply.whenComplete((r, ex) -> replied.complete(null));
+	}
+
+	/**
+	 * Note that the command's handler has returned, and any replies it made
+	 * have been sent
+	 * 
+	 * @return a future completed once the command's reply has been sent
+	 */
+	CompletableFuture<Void> handled()
+	{
+		if (!repliesLater)
+		{
+			replied.complete(null);
+		}
+		return replied;
+	}
+}
@@ -0,0 +1,226 @@
+package bot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import bot.util.Config;
+import bot.util.TokenBucket;
+
+/**
+ * Decides whether an invocation of the bot may run, so one user (or one busy
+ * guild) spamming commands can't use up the bot's threads, outgoing requests
+ * and Discord rate limits. Each invocation takes a token from three buckets:
+ * its user's, its guild's and its module's within that guild. If any of them
+ * is empty, the invocation is shed, and the tokens it took from the others
+ * are given back, so a shed invocation costs nothing.
+ *
+ * Buckets are lock-free (see TokenBucket), so checks made on the event thread
+ * never contend. Buckets that have refilled completely are forgotten once
+ * there are many of them. Settings (see Config), each a burst size and a
+ * sustained rate per second. A rate of 0 means no limit of that kind:
+ * <ul>
+ * <li>`limits.user.burst`, `limits.user.perSecond`: per user, across
+ * guilds</li>
+ * <li>`limits.guild.burst`, `limits.guild.perSecond`: per guild</li>
+ * <li>`limits.module.burst`, `limits.module.perSecond`: per module per guild,
+ * overridden for one module by `limits.module.NAME.burst` etc.</li>
+ * <li>`limits.noticeSeconds`: a user who is shed is told so at most this
+ * often; 0 to shed silently</li>
+ * </ul>
+ *
+ * @author Namdrib
+ *
+ */
+public class CommandLimiter
+{
+	/**
+	 * What happened to an invocation
+	 */
+	public enum Verdict
+	{
+		/** The invocation may run */
+		ALLOW,
+		/** The invocation is shed, and its user should be told */
+		NOTIFY,
+		/** The invocation is shed silently */
+		SHED
+	}
+
+	private static final int						forgetAbove		= 10000;
+
+	private static final int						userBurst		= burst(
+			"limits.user.burst", 5);
+	private static final double						userRate		= rate(
+			"limits.user.perSecond", 0.5);
+	private static final int						guildBurst		= burst(
+			"limits.guild.burst", 20);
+	private static final double						guildRate		= rate(
+			"limits.guild.perSecond", 2);
+	private static final int						moduleBurst		= burst(
+			"limits.module.burst", 10);
+	private static final double						moduleRate		= rate(
+			"limits.module.perSecond", 1);
+	private static final long						noticeSeconds	= Config
+			.getLong("limits.noticeSeconds", 60);
+
+	private final Map<Long, TokenBucket>			users			= new ConcurrentHashMap<>();
+	private final Map<Long, TokenBucket>			guilds			= new ConcurrentHashMap<>();
+	private final Map<String, TokenBucket>			modules			= new ConcurrentHashMap<>();
+	private final Map<Long, TokenBucket>			notices			= new ConcurrentHashMap<>();
+
+	// Metrics
+	private final AtomicLong						allowed			= new AtomicLong();
+	private final AtomicLong						shedUser		= new AtomicLong();
+	private final AtomicLong						shedGuild		= new AtomicLong();
+	private final AtomicLong						shedModule		= new AtomicLong();
+	private final AtomicLong						notified		= new AtomicLong();
+
+	/**
+	 * Take tokens for an invocation
+	 *
+	 * @param userId
+	 *            who invoked the bot
+	 * @param guildId
+	 *            where
+	 * @param module
+	 *            identifier of the module invoked, or null if none was
+	 * @return whether the invocation may run, and if not, whether to say so
+	 */
+	public Verdict check(long userId, long guildId, String module)
+	{
+		TokenBucket user = bucket(users, userId,
+				() -> newBucket(userBurst, userRate));
+		if (!tryTake(user))
+		{
+			shedUser.incrementAndGet();
+			return shed(userId);
+		}
+		TokenBucket guild = bucket(guilds, guildId,
+				() -> newBucket(guildBurst, guildRate));
+		if (!tryTake(guild))
+		{
+			giveBack(user);
+			shedGuild.incrementAndGet();
+			return shed(userId);
+		}
+		if (module != null && !tryTake(bucket(modules, guildId + ":" + module,
+				() -> moduleBucket(module))))
+		{
+			giveBack(user);
+			giveBack(guild);
+			shedModule.incrementAndGet();
+			return shed(userId);
+		}
+		allowed.incrementAndGet();
+		return Verdict.ALLOW;
+	}
+
+	/**
+	 * @return true iff bucket had a token to take, or there is no limit
+	 */
+	private static boolean tryTake(TokenBucket bucket)
+	{
+		return bucket == null || bucket.tryTake();
+	}
+
+	private static void giveBack(TokenBucket bucket)
+	{
+		if (bucket != null)
+		{
+			bucket.giveBack();
+		}
+	}
+
+	/**
+	 * @return NOTIFY if userId hasn't been told they were shed recently
+	 */
+	private Verdict shed(long userId)
+	{
+		if (noticeSeconds > 0 && bucket(notices, userId,
+				() -> new TokenBucket(1, 1.0 / noticeSeconds)).tryTake())
+		{
+			notified.incrementAndGet();
+			return Verdict.NOTIFY;
+		}
+		return Verdict.SHED;
+	}
+
+	/**
+	 * @return a new bucket for a module in one guild, or null if there is no
+	 *         limit
+	 */
+	private static TokenBucket moduleBucket(String module)
+	{
+		return newBucket(
+				burst("limits.module." + module + ".burst", moduleBurst),
+				rate("limits.module." + module + ".perSecond", moduleRate));
+	}
+
+	/**
+	 * @return a new bucket, or null if perSecond is 0 (no limit)
+	 */
+	private static TokenBucket newBucket(int burst, double perSecond)
+	{
+		return perSecond == 0 ? null : new TokenBucket(burst, perSecond);
+	}
+
+	/**
+	 * Read a burst size, which must be at least 1
+	 */
+	private static int burst(String key, int def)
+	{
+		int burst = Config.getInt(key, def);
+		if (burst < 1)
+		{
+			System.out.println("Ignoring invalid setting " + key + "=" + burst);
+			return def;
+		}
+		return burst;
+	}
+
+	/**
+	 * Read a rate, which must be 0 (no limit) or at least one per million
+	 * seconds
+	 */
+	private static double rate(String key, double def)
+	{
+		double rate = Config.getDouble(key, def);
+		if (rate != 0 && !(rate >= 1e-6 && rate < Double.POSITIVE_INFINITY))
+		{
+			System.out.println("Ignoring invalid setting " + key + "=" + rate);
+			return def;
+		}
+		return rate;
+	}
+
+	/**
+	 * Get the bucket for a key, creating it if needed. Null (no limit) is
+	 * never stored, so it is worked out again each time
+	 */
+	private static <K> TokenBucket bucket(Map<K, TokenBucket> buckets, K key,
+			Supplier<TokenBucket> create)
+	{
+		TokenBucket bucket = buckets.get(key);
+		if (bucket != null)
+		{
+			return bucket;
+		}
+		if (buckets.size() > forgetAbove)
+		{
+			buckets.values().removeIf(TokenBucket::isFull);
+		}
+		return buckets.computeIfAbsent(key, k -> create.get());
+	}
+
+	/**
+	 * @return human-readable counts of invocations allowed and shed
+	 */
+	public String stats()
+	{
+		return "allowed " + allowed.get() + ", shed per user " + shedUser.get()
+				+ ", per guild " + shedGuild.get() + ", per module "
+				+ shedModule.get() + ", notices sent " + notified.get();
+	}
+}
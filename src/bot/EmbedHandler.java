@@ -0,0 +1,33 @@
+package bot;
+
+import java.util.List;
+
+import net.dv8tion.jda.core.entities.MessageEmbed;
+import net.dv8tion.jda.core.entities.TextChannel;
+
+/**
+ * Something that reacts to embeds (link previews, attachments) in ordinary
+ * messages, as opposed to commands. Registered with an EmbedPipeline, which
+ * calls it off the event thread
+ *
+ * @author Namdrib
+ *
+ */
+public interface EmbedHandler
+{
+	/**
+	 * Deal with a message's embeds. Called at most once per message
+	 * 
+	 * @param channel
+	 *            the channel the message was sent in
+	 * @param messageId
+	 *            the message's ID
+	 * @param content
+	 *            the message's raw content, or null if only its embeds are
+	 *            known (i.e. Discord added them after the message was sent)
+	 * @param embeds
+	 *            the message's embeds, never empty
+	 */
+	void handleEmbeds(TextChannel channel, long messageId, String content,
+			List<MessageEmbed> embeds);
+}
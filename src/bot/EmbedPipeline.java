@@ -0,0 +1,216 @@
+package bot;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bot.util.Config;
+import bot.util.Workers;
+import net.dv8tion.jda.core.entities.MessageEmbed;
+import net.dv8tion.jda.core.entities.TextChannel;
+
+/**
+ * Hands messages' embeds to EmbedHandlers on background threads, so channels
+ * full of links never hold up commands.
+ *
+ * Each handler only sees the channels it was enabled for, by a
+ * comma-separated list of channel IDs in `embeds.NAME.channels` (see Config);
+ * messages anywhere else are dropped on the event thread with one set lookup.
+ * A message's embeds may arrive with it or in a later update, but each
+ * message is handled once, and never if the bot or another bot sent it. At
+ * most `embeds.maxQueued` messages may wait; any more are dropped. Settings:
+ * <ul>
+ * <li>`embeds.threads`: threads running handlers</li>
+ * <li>`embeds.maxQueued`: the most messages waiting to be handled</li>
+ * <li>`embeds.remember`: how many message IDs to remember for
+ * de-duplication</li>
+ * </ul>
+ *
+ * @author Namdrib
+ *
+ */
+public class EmbedPipeline
+{
+	/**
+	 * A handler and the channels it is enabled in
+	 */
+	private static class Registration
+	{
+		final String		name;
+		final EmbedHandler	handler;
+		final Set<Long>		channels;
+
+		Registration(String name, EmbedHandler handler, Set<Long> channels)
+		{
+			this.name = name;
+			this.handler = handler;
+			this.channels = channels;
+		}
+	}
+
+	private static final int					remember		= Config
+			.getInt("embeds.remember", 1000);
+
+	private final ExecutorService				executor		= new ThreadPoolExecutor(
+			Config.getInt("embeds.threads", 1),
+			Config.getInt("embeds.threads", 1), 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(Config.getInt("embeds.maxQueued", 100)),
+			Workers.daemonThreads("embeds"));
+
+	private final List<Registration>			handlers		= new CopyOnWriteArrayList<>();
+
+	// Channels any handler is enabled in, for the quick check
+	private volatile Set<Long>					channels		= Collections
+			.emptySet();
+
+	// Recently seen message IDs, oldest first
+	private final Map<Long, Boolean>			seen			= Collections
+			.synchronizedMap(new LinkedHashMap<Long, Boolean>()
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Long, Boolean> eldest)
+				{
+					return size() > remember;
+				}
+			});
+
+	// Metrics
+	private final AtomicLong					handled			= new AtomicLong();
+	private final AtomicLong					duplicates		= new AtomicLong();
+	private final AtomicLong					dropped			= new AtomicLong();
+
+	/**
+	 * Add a handler, enabled in the channels listed in `embeds.NAME.channels`.
+	 * Must be called while modules are being loaded
+	 * 
+	 * @param name
+	 *            name of the handler's setting, e.g. a module's identifier
+	 * @param handler
+	 *            the handler
+	 */
+	public void register(String name, EmbedHandler handler)
+	{
+		Set<Long> enabled = new HashSet<>();
+		for (String id : Config.get("embeds." + name + ".channels", "")
+				.split(","))
+		{
+			try
+			{
+				if (!id.trim().isEmpty())
+				{
+					enabled.add(Long.parseLong(id.trim()));
+				}
+			}
+			catch (NumberFormatException ex)
+			{
+				System.out.println("Ignoring malformed channel ID " + id
+						+ " in embeds." + name + ".channels");
+			}
+		}
+		handlers.add(new Registration(name, handler, enabled));
+
+		Set<Long> all = new HashSet<>(channels);
+		all.addAll(enabled);
+		channels = all;
+		System.out.println("Embeds: " + name + " enabled in "
+				+ enabled.size() + " channels");
+	}
+
+	/**
+	 * Queue a message's embeds for the handlers enabled in its channel
+	 * 
+	 * @param channel
+	 *            the channel the message was sent in
+	 * @param messageId
+	 *            the message's ID
+	 * @param content
+	 *            the message's raw content, or null if not known
+	 * @param embeds
+	 *            the message's embeds, possibly empty
+	 */
+	public void offer(TextChannel channel, long messageId, String content,
+			List<MessageEmbed> embeds)
+	{
+		if (embeds == null || embeds.isEmpty()
+				|| !channels.contains(channel.getIdLong()))
+		{
+			return;
+		}
+		if (seen.putIfAbsent(messageId, Boolean.TRUE) != null)
+		{
+			duplicates.incrementAndGet();
+			return;
+		}
+
+		try
+		{
+			executor.execute(() -> run(channel, messageId, content, embeds));
+		}
+		catch (RejectedExecutionException ex)
+		{
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Make sure a message is never handled, e.g. because a bot sent it, even
+	 * if its embeds arrive later
+	 * 
+	 * @param channel
+	 *            the channel the message was sent in
+	 * @param messageId
+	 *            the message's ID
+	 */
+	public void ignore(TextChannel channel, long messageId)
+	{
+		if (channels.contains(channel.getIdLong()))
+		{
+			seen.put(messageId, Boolean.TRUE);
+		}
+	}
+
+	private void run(TextChannel channel, long messageId, String content,
+			List<MessageEmbed> embeds)
+	{
+		for (Registration r : handlers)
+		{
+			if (!r.channels.contains(channel.getIdLong()))
+			{
+				continue;
+			}
+			try
+			{
+				r.handler.handleEmbeds(channel, messageId, content, embeds);
+			}
+			catch (RuntimeException ex)
+			{
+				System.out.println("Embed handler " + r.name + " failed:");
+				ex.printStackTrace();
+			}
+		}
+		handled.incrementAndGet();
+	}
+
+	/**
+	 * @return human-readable counts of messages handled, skipped as
+	 *         duplicates and dropped because the queue was full
+	 */
+	public String stats()
+	{
+		return "handled " + handled.get() + ", duplicates " + duplicates.get()
+				+ ", dropped " + dropped.get();
+	}
+}
@@ -1,27 +1,31 @@
 package bot;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import bot.Bot;
 import bot.util.Helpers;
-import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.Member;
-import net.dv8tion.jda.core.entities.Message;
-import net.dv8tion.jda.core.entities.MessageChannel;
+import bot.util.Trie;
+import bot.util.RestScheduler.Priority;
 import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
-import net.dv8tion.jda.core.managers.GuildController;
 
 /**
  * This class is the basis for all modules/commands the bot can handle. Modules
  * are essentially a set of functions the bot can use. New modules (which should
  * be in the `modules` folder) need to be registered with the bot before it can
- * be used. This allows the bot to tell whether a given command is valid
+ * be used. Each Module declares its commands (name, number of arguments and
+ * handler) in setCommandList(), and registering compiles them into a
+ * case-insensitive lookup, so the bot can tell whether a given command is
+ * valid and dispatch it without scanning lists
  * 
  * All Modules should be named [Functionality]Module where [Functionality] is
  * the name of your module. For example, "RoleModule" or "BanModule"
  * 
- * 
+ * Modules must not store per-command state in fields. Everything about an
+ * invocation is carried in its CommandContext, which is passed to every
+ * command, so one Module may handle several commands concurrently
  * 
  * @author Namdrib
  *
@@ -29,102 +33,144 @@ import net.dv8tion.jda.core.managers.GuildController;
 public abstract class Module
 {
 	// Variables
-	protected GuildMessageReceivedEvent	event;
-	protected Message					message;
-	protected Member					member;
-	protected MessageChannel			channel;
-	protected Guild						guild;
-	protected GuildController			guildController;
+	protected List<Command>	commandList	= new ArrayList<>();
+	protected String		identifier;
 
-	protected StringTokenizer			st;
-	protected List<String>				commandList;
-	protected String					identifier;
+	protected Bot			bot;
 
-	protected Bot						bot;
+	// commandList by name, filled in by Bot.register
+	final Trie<Command>		commands	= new Trie<>();
 
 	public Module(Bot bot)
 	{
 		this.bot = bot;
-		bot.register(this, identifier);
 		setCommandList();
+		bot.register(this, identifier);
 	}
 
 	public Module(Bot bot, String identifier)
 	{
 		this.bot = bot;
 		this.identifier = identifier;
-		bot.register(this, this.identifier);
 		setCommandList();
+		bot.register(this, this.identifier);
 	}
 
+	/**
+	 * Declare this Module's commands, using command(...)
+	 */
 	protected abstract void setCommandList();
 
 	/**
-	 * Handle the event. Generally, parse the message to figure out what command
-	 * was invoked and carry it out.
+	 * Declare a command
+	 * 
+	 * @param name
+	 *            the command's name, as shown to users. Matched ignoring case
+	 * @param minArgs
+	 *            the fewest arguments it accepts
+	 * @param maxArgs
+	 *            the most arguments it accepts, or Command.ANY
+	 * @param usage
+	 *            the command with its arguments, e.g. "add ROLE"
+	 * @param handler
+	 *            carries out the command
+	 */
+	protected void command(String name, int minArgs, int maxArgs,
+			String usage, Consumer<CommandContext> handler)
+	{
+		commandList.add(new Command(name, minArgs, maxArgs, usage, handler));
+	}
+
+	/**
+	 * Declare a command that only reads (e.g. lists or looks something up).
+	 * An invocation made in a channel while an identical one is still waiting
+	 * or replying there is dropped without a reply of its own, since the first
+	 * one's reply answers both. A handler that replies asynchronously must say
+	 * so with CommandContext.replyLater
+	 * 
+	 * @param name
+	 *            the command's name, as shown to users. Matched ignoring case
+	 * @param minArgs
+	 *            the fewest arguments it accepts
+	 * @param maxArgs
+	 *            the most arguments it accepts, or Command.ANY
+	 * @param usage
+	 *            the command with its arguments, e.g. "list [PAGE]"
+	 * @param handler
+	 *            carries out the command
+	 */
+	protected void readCommand(String name, int minArgs, int maxArgs,
+			String usage, Consumer<CommandContext> handler)
+	{
+		commandList.add(
+				new Command(name, minArgs, maxArgs, usage, true, handler));
+	}
+
+	/**
+	 * Handle the event. Look up the command that was invoked and carry it out,
+	 * or display help if there is no such command.
 	 * 
 	 * If we got to this point, assume this Module was the intended target
 	 * 
 	 * @param e
 	 *            the guild message received event for this
-	 * @throws Exception
-	 *             things
+	 * @param content
+	 *            the message's content
+	 * @param start
+	 *            where the command starts in content, i.e. just after this
+	 *            Module's identifier
+	 * @return a future completed once the command's reply has been sent, which
+	 *         may be after this returns (see CommandContext.replyLater)
 	 */
-	public void handle(GuildMessageReceivedEvent e, StringTokenizer st)
+	public CompletableFuture<Void> handle(GuildMessageReceivedEvent e,
+			String content, int start)
 	{
-		if (e.isWebhookMessage())
-		{
-			return;
-		}
-		event = e;
-		message = e.getMessage();
-		member = e.getMember();
-		channel = e.getChannel();
-		guild = e.getGuild();
-		this.st = st;
-
-		if (guild == null)
+		if (e.isWebhookMessage() || e.getGuild() == null)
 		{
-			return;
+			return CompletableFuture.completedFuture(null);
 		}
 
-		System.out.println(member.getEffectiveName() + " : "
-				+ message.getContentDisplay());
+		System.out.println(e.getMember().getEffectiveName() + " : "
+				+ e.getMessage().getContentDisplay());
 
-		guildController = guild.getController();
-		if (!st.hasMoreTokens())
+		int commandStart = Trie.skipSpace(content, start);
+		int commandEnd = Trie.wordEnd(content, commandStart);
+		Command command = commands.get(content, commandStart, commandEnd);
+		CommandContext ctx = new CommandContext(e, content, commandEnd);
+		if (command == null)
 		{
-			help();
+			help(ctx);
 		}
 		else
 		{
-			String command = st.nextToken().toLowerCase();
-			if (commandList.contains(command))
+			Helpers.send(ctx.getChannel(),
+					"`" + command.getName() + "` command invoked",
+					Priority.LOW);
+			if (command.accepts(ctx.getArgumentCount()))
 			{
-				execute(command);
+				command.run(ctx);
 			}
 			else
 			{
-				help();
+				Helpers.send(ctx.getChannel(),
+						"Usage: `" + command.getUsage() + "`");
 			}
 		}
-	}
 
-	/**
-	 * Execute command `command`. Additional arguments may be read from `st`
-	 * 
-	 * @param command
-	 *            the command to execute
-	 */
-	protected void execute(String command)
-	{
-		Helpers.send(channel, "Handle " + command + " here");
+		// Send the command's replies together now rather than waiting out
+		// the Outbox window. Replies that come later (from asynchronous work)
+		// are still combined by the window
+		Helpers.flush(ctx.getChannel());
+		return ctx.handled();
 	}
 
 	/**
 	 * Display a help message for this module. Each module needs its own help
 	 * function. Ideally, display at least one line for each publicly available
 	 * command
+	 * 
+	 * @param ctx
+	 *            the context of this invocation
 	 */
-	protected abstract void help();
+	protected abstract void help(CommandContext ctx);
 }
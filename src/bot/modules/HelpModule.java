@@ -2,10 +2,12 @@ package bot.modules;
 
 import java.util.ArrayList;
 
+import bot.CommandContext;
 import bot.Module;
 import bot.Bot;
 import bot.util.Global;
 import bot.util.Helpers;
+import bot.util.RestScheduler.Priority;
 
 public class HelpModule extends Module
 {
@@ -26,7 +28,7 @@ public class HelpModule extends Module
 	}
 
 	@Override
-	protected void help()
+	protected void help(CommandContext ctx)
 	{
 		String helpMessage = " ----- Help message for " + Global.botName
 				+ " -----\n" + "Invoke with `" + Global.prefix
@@ -39,6 +41,6 @@ public class HelpModule extends Module
 				+ " identifier help` (e.g. `" + Global.prefix
 				+ " role help`)\n";
 
-		Helpers.send(channel, helpMessage);
+		Helpers.send(ctx.getChannel(), helpMessage, Priority.LOW);
 	}
 }
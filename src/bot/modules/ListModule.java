@@ -3,10 +3,12 @@ package bot.modules;
 import java.util.ArrayList;
 import java.util.Map.Entry;
 
+import bot.CommandContext;
 import bot.Module;
 import bot.Bot;
 import bot.util.Global;
 import bot.util.Helpers;
+import bot.util.RestScheduler.Priority;
 
 public class ListModule extends Module
 {
@@ -27,7 +29,7 @@ public class ListModule extends Module
 	}
 
 	@Override
-	protected void help()
+	protected void help(CommandContext ctx)
 	{
 		String helpMessage = "List of all registered modules and their identifiers\n";
 
@@ -65,7 +67,7 @@ public class ListModule extends Module
 		helpMessage += "For further help with individual modules see, `"
 				+ Global.prefix + " identifier help`\n";
 
-		Helpers.send(channel, helpMessage);
+		Helpers.send(ctx.getChannel(), helpMessage, Priority.LOW);
 	}
 
 }
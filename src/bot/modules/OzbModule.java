@@ -1,20 +1,41 @@
 package bot.modules;
 
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
+import bot.Command;
+import bot.CommandContext;
 import bot.Module;
 import bot.Bot;
+import bot.modules.ozb.DealLookup;
+import bot.modules.ozb.DealParseException;
+import bot.modules.ozb.DealUnfurler;
+import bot.modules.ozb.DealWatcher;
+import bot.modules.ozb.OzbDeal;
+import bot.util.Config;
 import bot.util.Helpers;
+import bot.util.Helpers.ResponseSink;
+import bot.util.RestScheduler.Priority;
+import bot.util.Workers;
+import net.dv8tion.jda.core.entities.MessageChannel;
 
 public class OzbModule extends Module
 {
+	// Limits on how many deals one `info` may look up, and how many of those
+	// are fetched at once
+	private static final int	maxLinks	= Config.getInt("ozb.info.maxLinks",
+			10);
+	private static final int	maxParallel	= Config
+			.getInt("ozb.info.parallel", 4);
+
+	private final DealLookup	deals		= new DealLookup();
+	private final DealWatcher	watcher		= new DealWatcher(deals);
+	private final DealUnfurler	unfurler	= new DealUnfurler(deals);
+
 	/**
 	 * Register this module with Bot
 	 * 
@@ -23,119 +44,270 @@ public class OzbModule extends Module
 	 */
 	public OzbModule(Bot bot)
 	{
-		super(bot, "ozb");
+		this(bot, "ozb");
 	}
 
 	public OzbModule(Bot bot, String identifier)
 	{
 		super(bot, identifier);
+		bot.getEmbeds().register(identifier, unfurler);
 	}
 
 	@Override
 	protected void setCommandList()
 	{
-		commandList = new ArrayList<>(Arrays.asList("help", "info"));
+		readCommand("help", 0, 0, "help", this::help);
+		readCommand("info", 1, Command.ANY, "info dealLinks...", this::info);
+		readCommand("stats", 0, 0, "stats",
+				ctx -> Helpers.send(ctx.getChannel(), "Deal cache: "
+						+ deals.stats() + "\nLinks: " + unfurler.stats()));
+		command("watch", 0, Command.ANY, "watch [dealLink VOTES | KEYWORDS...]",
+				this::watch);
+		command("unwatch", 0, Command.ANY,
+				"unwatch [dealLink | KEYWORDS...]", this::unwatch);
 	}
 
 	// Helper functions
 
 	@Override
-	protected void help()
+	protected void help(CommandContext ctx)
 	{
 		String helpMessage = " ----- Help message for "
 				+ getClass().getSimpleName() + " -----\n"
 				+ "  `help`: display this help message\n"
-				+ "  `info`: print info for the deal\n";
+				+ "  `info dealLinks...`: print info for the deals\n"
+				+ "  `stats`: show deal cache and link summary statistics\n"
+				+ "  `watch`: list what this channel is watching\n"
+				+ "  `watch dealLink VOTES`: say here when the deal reaches `VOTES` net votes\n"
+				+ "  `watch KEYWORDS...`: post new deals matching any of `KEYWORDS...` here\n"
+				+ "  `unwatch`: stop watching everything in this channel\n"
+				+ "  `unwatch dealLink` / `unwatch KEYWORDS...`: stop watching a deal or keywords\n";
+
+		Helpers.send(ctx.getChannel(), helpMessage, Priority.LOW);
+	}
+
+	private void info(CommandContext ctx)
+	{
+		if (ctx.getArgumentCount() > maxLinks)
+		{
+			Helpers.send(ctx.getChannel(), "At most " + maxLinks
+					+ " deals can be looked up at once");
+			return;
+		}
+
+		getOzbInfo(ctx, ctx.getArguments());
+	}
+
+	/**
+	 * Prints upvotes, downvotes, net votes, number of clicks, date posted and
+	 * date of expiry of the given deals. Deals are looked up off the event
+	 * thread (or served from cache), a few at a time, and one reply is sent
+	 * once they are all ready. Several deals are summarised as a table, in the
+	 * order they were given, with a row explaining any that failed
+	 * 
+	 * @param ctx
+	 *            the context of the invoking command
+	 * @param links
+	 *            links to the deals to get info
+	 */
+	private void getOzbInfo(CommandContext ctx, List<String> links)
+	{
+		MessageChannel channel = ctx.getChannel();
+		if (links.size() == 1)
+		{
+			String link = links.get(0);
+			ctx.replyLater(lookup(link).whenComplete((deal, ex) -> {
+				Helpers.send(channel,
+						ex == null ? deal.toString() : failureReason(link, ex));
+			}));
+			return;
+		}
+
+		List<CompletableFuture<OzbDeal>> lookups = Workers.throttle(links,
+				maxParallel, this::lookup);
+		List<CompletableFuture<String>> rows = new ArrayList<>();
+		for (int i = 0; i < links.size(); i++)
+		{
+			int row = i + 1;
+			String link = links.get(i);
+			rows.add(lookups.get(i).handle((deal, ex) -> ex != null
+					? String.format("%2d %s", row, failureReason(link, ex))
+					: String.format("%2d %4d %4d %4d  %-12s %s", row,
+							deal.getNetVotes(), deal.getUpvotes(),
+							deal.getDownvotes(), truncate(deal.getExpiry(), 12),
+							truncate(deal.getTitle(), 40))));
+		}
 
-		Helpers.send(channel, helpMessage);
+		ctx.replyLater(CompletableFuture
+				.allOf(rows.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+					ResponseSink table = Helpers.sink(channel, null,
+							"deals.txt", true);
+					table.line(String.format("%2s %4s %4s %4s  %-12s %s", "#",
+							"Net", "Up", "Down", "Expires", "Title"));
+					for (CompletableFuture<String> row : rows)
+					{
+						table.line(row.join());
+					}
+					table.send();
+				}));
 	}
 
 	/**
-	 * Parse and carry out specified the user's commands TODO : move majority to
-	 * handle()
+	 * Look up the deal for a link
+	 * 
+	 * @param link
+	 *            the link given by the user
+	 * @return a future completed with the deal, or exceptionally if the link
+	 *         isn't a deal or the deal couldn't be fetched
 	 */
-	public void execute(String command)
+	private CompletableFuture<OzbDeal> lookup(String link)
 	{
-		switch (command)
+		long nodeId = OzbDeal.nodeIdFrom(link);
+		if (!link.contains("ozbargain.com.au/node/") || nodeId < 0)
 		{
-			case "help":
+			CompletableFuture<OzbDeal> invalid = new CompletableFuture<>();
+			invalid.completeExceptionally(new IllegalArgumentException());
+			return invalid;
+		}
+		return deals.lookup(nodeId).thenApply(deal -> {
+			if (deal == null)
 			{
-				Helpers.send(channel, "`help` command invoked");
-				help();
-				break;
+				throw new IllegalArgumentException();
 			}
-			case "info":
+			return deal;
+		});
+	}
+
+	/**
+	 * @param link
+	 *            the link given by the user
+	 * @param ex
+	 *            why looking it up failed
+	 * @return a user-facing explanation of ex
+	 */
+	private static String failureReason(String link, Throwable ex)
+	{
+		Throwable cause = ex instanceof CompletionException
+				&& ex.getCause() != null ? ex.getCause() : ex;
+		if (cause instanceof UncheckedIOException)
+		{
+			cause = cause.getCause();
+		}
+		if (cause instanceof DealParseException)
+		{
+			return "Could not read the deal, OzBargain's page layout may have changed: "
+					+ link;
+		}
+		if (cause instanceof IllegalArgumentException)
+		{
+			return "Link must be for a valid OzBargain deal: " + link;
+		}
+		if (cause instanceof RejectedExecutionException)
+		{
+			return "Too busy right now, try again shortly: " + link;
+		}
+		cause.printStackTrace();
+		return "Could not load " + link;
+	}
+
+	private static String truncate(String s, int length)
+	{
+		return s.length() <= length ? s : s.substring(0, length - 1) + "~";
+	}
+
+	/**
+	 * Subscribe the channel to a deal's votes or to keywords in new deals. With
+	 * no arguments, list the channel's subscriptions
+	 * 
+	 * @param ctx
+	 *            the context of the invoking command
+	 */
+	private void watch(CommandContext ctx)
+	{
+		MessageChannel channel = ctx.getChannel();
+		List<String> arguments = ctx.getArguments();
+		if (arguments.isEmpty())
+		{
+			Helpers.send(channel, watcher.describe(channel));
+			return;
+		}
+
+		long nodeId = OzbDeal.nodeIdFrom(arguments.get(0));
+		if (nodeId < 0)
+		{
+			List<String> refused = watcher.watchKeywords(channel, arguments);
+			List<String> watched = new ArrayList<>(arguments);
+			watched.removeAll(refused);
+			StringBuilder reply = new StringBuilder();
+			if (!watched.isEmpty())
 			{
-				Helpers.send(channel, "`info` command invoked");
-
-				if (!st.hasMoreTokens())
-				{
-					Helpers.send(channel, "Usage: `info dealLink`");
-					return;
-				}
-				String argument = st.nextToken();
-				if (!argument.contains("www.ozbargain.com.au/node/"))
-				{
-					Helpers.send(channel,
-							"Link must be for a valid OzBargain deal");
-				}
-
-				getOzbInfo(argument);
-				break;
+				reply.append("Watching new deals for ")
+						.append(Helpers.listWithoutBrackets(watched))
+						.append('\n');
 			}
-			default:
+			if (!refused.isEmpty())
 			{
-				Helpers.send(channel, "invalid command invoked");
-				help();
+				reply.append("Not watching ")
+						.append(Helpers.listWithoutBrackets(refused))
+						.append(", watch limit reached (")
+						.append(watcher.describeLimits()).append(')');
 			}
+			Helpers.send(channel, reply.toString().trim());
+			return;
 		}
+
+		int votes;
+		try
+		{
+			votes = Integer.parseInt(arguments.get(1));
+		}
+		catch (IndexOutOfBoundsException | NumberFormatException ex)
+		{
+			Helpers.send(channel, "Usage: `watch dealLink VOTES`");
+			return;
+		}
+		if (!watcher.watchDeal(channel, nodeId, votes))
+		{
+			Helpers.send(channel, "Not watching " + deals.urlFor(nodeId)
+					+ ", watch limit reached (" + watcher.describeLimits()
+					+ ")");
+			return;
+		}
+		Helpers.send(channel, "Watching " + deals.urlFor(nodeId)
+				+ " until it reaches " + votes + " votes");
 	}
 
 	/**
-	 * Prints upvotes, downvotes, net votes, number of clicks, date posted and
-	 * date of expiry of a given deal
+	 * Unsubscribe the channel from a deal or keywords, or from everything if
+	 * there are no arguments
 	 * 
-	 * @param dealUrl
-	 *            the URL of the deal to get info
+	 * @param ctx
+	 *            the context of the invoking command
 	 */
-	private void getOzbInfo(String dealUrl)
+	private void unwatch(CommandContext ctx)
 	{
-		try
+		MessageChannel channel = ctx.getChannel();
+		List<String> arguments = ctx.getArguments();
+		if (arguments.isEmpty())
 		{
-			Document doc = Jsoup.connect(dealUrl).get();
-
-			// Check it's actually a deal, not a forum post etc.
-			if (doc.selectFirst(".node-ozbdeal") == null)
-			{
-				Helpers.send(channel,
-						"Link must be for a valid OzBargain deal");
-				return;
-			}
+			int removed = watcher.unwatchAll(channel);
+			Helpers.send(channel, "Stopped " + removed + " watches");
+			return;
+		}
 
-			Elements dealVotes = doc.select(".nvb");
-			int upvotes = Integer.parseInt(dealVotes.first().text().trim());
-			int downvotes = Integer.parseInt(dealVotes.last().text().trim());
-			String clicks = doc.selectFirst(".nodeclicks").text().trim();
-
-			// TODO: Better way of getting submitted datetime info
-			Element submitted = doc.selectFirst(".submitted");
-			// System.out.println("submitted: " + submitted);
-			String submitDateTime = submitted.ownText()
-					.substring(0, submitted.ownText().indexOf(" Last edited"))
-					.trim();
-			System.out.println("ownText(): " + submitted.ownText());
-			String expiry = doc.selectFirst(".nodeexpiry").text().trim();
-
-			String msg = doc.title() + "\nUp: " + upvotes + ", Down: "
-					+ downvotes + ", Net: " + (upvotes - downvotes) + " "
-					+ clicks + "\nPosted " + submitDateTime + ", expires "
-					+ expiry;
-			Helpers.send(channel, msg);
-			System.out.println(msg);
-		}
-		catch (IOException ex)
-		{
-			ex.printStackTrace();
+		long nodeId = OzbDeal.nodeIdFrom(arguments.get(0));
+		if (nodeId < 0)
+		{
+			int removed = watcher.unwatchKeywords(channel, arguments);
+			Helpers.send(channel, "Stopped watching " + removed + " keywords");
+		}
+		else if (watcher.unwatchDeal(channel, nodeId))
+		{
+			Helpers.send(channel, "Stopped watching " + deals.urlFor(nodeId));
+		}
+		else
+		{
+			Helpers.send(channel, "Was not watching " + deals.urlFor(nodeId));
 		}
 	}
 }
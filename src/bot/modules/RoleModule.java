@@ -1,17 +1,32 @@
 package bot.modules;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import bot.Command;
+import bot.CommandContext;
 import bot.Module;
 import bot.Bot;
+import bot.modules.role.RoleChange;
+import bot.modules.role.RoleIndex;
+import bot.modules.role.RoleMembers;
+import bot.modules.role.RoleMutator;
+import bot.modules.role.UsableRoles;
 import bot.util.*;
+import bot.util.Helpers.ResponseSink;
+import bot.util.RestScheduler.Priority;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.requests.RestAction;
 
 /**
  * Module responsible for handling roles Includes listing, adding/removing from
@@ -22,6 +37,22 @@ import net.dv8tion.jda.core.entities.Role;
  */
 public class RoleModule extends Module
 {
+	// How many roles one `createN` creates at once
+	private static final int	maxParallelCreates	= Config
+			.getInt("roles.create.parallel", 4);
+
+	// Role lookups by name, the roles the bot can manage and who has each
+	// role, kept current by role and member events
+	private final RoleIndex		roles	= new RoleIndex();
+	private final UsableRoles	usable	= new UsableRoles(
+			Global.prefix + " " + identifier + " listAll");
+	private final RoleMembers	members	= new RoleMembers();
+
+	// Merges role changes to the same member into one request
+	private final RoleMutator	mutator	= new RoleMutator(usable,
+			(member, set) -> schedule(member.getGuild(), member.getGuild()
+					.getController().modifyMemberRoles(member, set)));
+
 	/**
 	 * Register this module with Bot
 	 * 
@@ -30,32 +61,52 @@ public class RoleModule extends Module
 	 */
 	public RoleModule(Bot bot)
 	{
-		super(bot, "role");
+		this(bot, "role");
 	}
 
 	public RoleModule(Bot bot, String identifier)
 	{
 		super(bot, identifier);
+		roles.subscribe(bot.getEvents());
+		usable.subscribe(bot.getEvents());
+		mutator.subscribe(bot.getEvents());
+		members.subscribe(bot.getEvents());
 	}
 
 	@Override
 	protected void setCommandList()
 	{
-		commandList = new ArrayList<>(Arrays.asList("help", "list", "listall",
-				"add", "addn", "remove", "removen", "removeall", "create",
-				"createn", "memberswith"));
+		readCommand("help", 0, 0, "help", this::help);
+		command("list", 0, 1, "list [PAGE]", this::list);
+		readCommand("listAll", 0, 1, "listAll [PAGE]", this::listAll);
+		command("add", 1, 1, "add ROLE",
+				ctx -> addRole(ctx, ctx.getFirstArgument(), ctx.getMember()));
+		command("addN", 1, Command.ANY, "addN ROLES...", this::addN);
+		command("remove", 1, 1, "remove ROLE", ctx -> removeRole(ctx,
+				ctx.getFirstArgument(), ctx.getMember()));
+		command("removeN", 1, Command.ANY, "removeN ROLES...", this::removeN);
+		command("removeAll", 0, 0, "removeAll", this::removeAll);
+		command("create", 1, 1, "create ROLE",
+				ctx -> createRole(ctx, ctx.getFirstArgument()));
+		command("createN", 1, Command.ANY, "createN ROLES...",
+				ctx -> createRoles(ctx, ctx.getArguments()));
+		readCommand("membersWith", 1, 2, "membersWith ROLE [PAGE]",
+				ctx -> membersWith(ctx, ctx.getFirstArgument()));
+		readCommand("roleStats", 0, 0, "roleStats", this::roleStats);
+		readCommand("stats", 0, 0, "stats", ctx -> Helpers
+				.send(ctx.getChannel(), "Role changes: " + mutator.stats()));
 	}
 
 	// Helper functions
 
 	@Override
-	protected void help()
+	protected void help(CommandContext ctx)
 	{
 		String helpMessage = " ----- Help message for "
 				+ getClass().getSimpleName() + " -----\n"
 				+ "  `help`: display this help message\n"
-				+ "  `list`: list your own roles\n"
-				+ "  `listAll`: list all available roles you can add to yourself\n"
+				+ "  `list [PAGE]`: list your own roles\n"
+				+ "  `listAll [PAGE]`: list all available roles you can add to yourself\n"
 				+ "  `add ROLE`: add `ROLE` to yourself (where `ROLE` is in `listAll`)\n"
 				+ "  `addN ROLES...`: add `ROLES...` to yourself (where `ROLES...` are in `listAll`)\n"
 				+ "  `remove ROLE`: remove `ROLE` from yourself (where `ROLE` is in `list`)\n"
@@ -63,78 +114,88 @@ public class RoleModule extends Module
 				+ "  `removeAll`: remove all roles from yourself\n"
 				+ "  `create ROLE`: create a role with name `ROLE`\n"
 				+ "  `createN ROLES...`: create multiple roles with names `ROLES...`\n"
-				+ "  `membersWith ROLE`: list all members to whom ROLE is assigned\n";
+				+ "  `membersWith ROLE [PAGE]`: list all members to whom ROLE is assigned\n"
+				+ "  `roleStats`: show how many members have each role\n"
+				+ "  `stats`: show how many role change requests were sent, merged or avoided\n";
 
-		Helpers.send(channel, helpMessage);
+		Helpers.send(ctx.getChannel(), helpMessage, Priority.LOW);
 	}
 
 	/**
-	 * Bot access determined by role hierarchy - bot cannot access roles with
-	 * higher position. Place the bot higher in the hierarchy to allow more
-	 * access, lower to restrict access. Calls getUsableRoles(List<Role>) with
-	 * all available guild roles
+	 * Hand a role change to the RestScheduler, charged to the guild's role
+	 * route
 	 * 
-	 * @return list of roles the bot can access excluding public role
+	 * @param guild
+	 *            the guild being changed
+	 * @param action
+	 *            the role change
+	 * @return a future completed with the result of the change
 	 */
-	private List<Role> getUsableRoles()
+	private static <T> CompletableFuture<T> schedule(Guild guild,
+			RestAction<T> action)
 	{
-		return getUsableRoles(guild.getRoles());
+		return RestScheduler.submit(RestScheduler.roleRoute(guild),
+				Priority.HIGH, action);
 	}
 
 	/**
-	 * Bot access determined by role hierarchy - bot cannot access roles with
-	 * higher position. Place the bot higher in the hierarchy to allow more
-	 * access, lower to restrict access
+	 * Add and remove a member's roles with a single request setting their
+	 * complete role set, worked out locally (see RoleChange). Changes to the
+	 * same member in quick succession are merged into one request (see
+	 * RoleMutator). Roles the bot cannot manage are skipped
 	 * 
-	 * @param input
-	 *            input roles from which to filter
-	 * @return list of roles the bot can access excluding public role
+	 * @param member
+	 *            the member to modify
+	 * @param add
+	 *            roles to add
+	 * @param remove
+	 *            roles to remove
+	 * @return a future completed with this call's part of the change once
+	 *         Discord has applied it
 	 */
-	private List<Role> getUsableRoles(List<Role> input)
+	private CompletableFuture<RoleChange> changeRoles(Member member,
+			Collection<Role> add, Collection<Role> remove)
 	{
-		// The highest position of all the roles the boy has
-		int botPosition = Collections.max(guild.getSelfMember().getRoles()
-				.stream().map(Role::getPosition).collect(Collectors.toList()));
-
-		List<Role> roles = new ArrayList<>(input).stream()
-				.filter(x -> x.getPosition() < botPosition)
-				.collect(Collectors.toList());
-		roles.remove(guild.getPublicRole());
-		return roles;
+		return mutator.submit(member, add, remove);
 	}
 
 	/**
-	 * 
-	 * Create a role with name `name` If successful, set mentionable. Fail if
-	 * another role with same name exists
-	 * 
-	 * @param name
-	 *            name of the role to create
+	 * @param change
+	 *            a planned role change
+	 * @return lines listing the roles the change had to skip and why, or an
+	 *         empty string if there were none
 	 */
-	private void createMentionableRole(String name)
+	private static String skippedNote(RoleChange change)
 	{
-		if (!guild.getRolesByName(name, false).isEmpty())
+		if (change.getSkipped().isEmpty())
 		{
-			Helpers.send(channel, "Role " + name + " already exists");
-			return;
+			return "";
 		}
-
-		try
-		{
-			guildController.createRole().setName(name)
-					.queue(x -> x.getManager().setMentionable(true).queue(a -> {
-						if (guild.getRolesByName(name, false).get(0)
-								.getName() == name)
-						{
-							Helpers.send(channel,
-									"Created mentionable role " + name);
-						}
-					}));
-		}
-		catch (Exception ex)
+		String out = "\nSkipped roles the bot cannot manage:";
+		for (Map.Entry<Role, String> skipped : change.getSkipped().entrySet())
 		{
-			ex.printStackTrace();
+			out += "\n  " + skipped.getKey().getName() + ": "
+					+ skipped.getValue();
 		}
+		return out;
+	}
+
+	/**
+	 * 
+	 * Create a mentionable role with name `name`, in a single request. Callers
+	 * should check that no role with the same name exists
+	 * 
+	 * @param ctx
+	 *            the context of the invoking command
+	 * @param name
+	 *            name of the role to create
+	 * @return a future completed with the created role
+	 */
+	private CompletableFuture<Role> createMentionableRole(CommandContext ctx,
+			String name)
+	{
+		return schedule(ctx.getGuild(), ctx.getGuildController().createRole()
+				.setName(name).setMentionable(true));
 	}
 
 	// Commands for modifying role presence
@@ -142,24 +203,28 @@ public class RoleModule extends Module
 	 * 
 	 * Assigns a role to a Member
 	 * 
+	 * @param ctx
+	 *            the context of the invoking command
 	 * @param argument
 	 *            the name of the role to add
 	 * @param member
 	 *            the member to modify
 	 * @return the successfully-added role, null if no role was added
 	 */
-	private void addRole(String argument, Member member)
+	private void addRole(CommandContext ctx, String argument, Member member)
 	{
+		MessageChannel channel = ctx.getChannel();
+		Guild guild = ctx.getGuild();
+
 		try
 		{
-			List<Role> roles = guild.getRolesByName(argument, false);
-			if (roles == null || roles.isEmpty())
+			Role r = roles.get(guild, argument);
+			if (r == null)
 			{
 				Helpers.send(channel, "Role " + argument
 						+ " does not exist. Maybe try creating it first");
 				return;
 			}
-			Role r = roles.get(0);
 			if (member.getRoles().contains(r))
 			{
 				Helpers.send(channel, member.getEffectiveName()
@@ -167,13 +232,32 @@ public class RoleModule extends Module
 				return;
 			}
 
-			guildController.addSingleRoleToMember(member, r).queue(a -> {
-				Helpers.send(channel, "Added role " + r.getName() + " to "
-						+ member.getEffectiveName());
-			}, b -> {
-				Helpers.send(channel, "Failed to add role " + r.getName()
-						+ " to " + member.getEffectiveName());
-			});
+			changeRoles(member, Collections.singletonList(r),
+					Collections.emptyList()).whenComplete((change, b) -> {
+						String msg;
+						if (b != null)
+						{
+							msg = "Failed to add role " + r.getName() + " to "
+									+ member.getEffectiveName();
+						}
+						else if (!change.getAdded().isEmpty())
+						{
+							msg = "Added role " + r.getName() + " to "
+									+ member.getEffectiveName();
+						}
+						else if (!change.getSkipped().isEmpty())
+						{
+							msg = "Cannot add role " + r.getName() + ": "
+									+ change.getSkipped().get(r);
+						}
+						else
+						{
+							// Added by an earlier request in the same batch
+							msg = member.getEffectiveName()
+									+ " already has role " + r.getName();
+						}
+						Helpers.send(channel, msg, Priority.HIGH);
+					});
 		}
 		catch (Exception ex)
 		{
@@ -185,15 +269,19 @@ public class RoleModule extends Module
 	 * 
 	 * Assigns multiple roles to a Member
 	 * 
-	 * @param arguments
-	 *            the names of the roles to add
+	 * @param ctx
+	 *            the context of the invoking command
+	 * @param rolesToAdd
+	 *            the roles to add
 	 * @param member
 	 *            the member to modify
-	 * @return the successfully-added roles, null if no roles were added
 	 */
-	private void addRoles(List<String> arguments, Member member)
+	private void addRoles(CommandContext ctx, List<Role> rolesToAdd,
+			Member member)
 	{
-		if (arguments.isEmpty())
+		MessageChannel channel = ctx.getChannel();
+
+		if (rolesToAdd.isEmpty())
 		{
 			Helpers.send(channel, "No roles to add");
 			return;
@@ -204,62 +292,58 @@ public class RoleModule extends Module
 			return;
 		}
 
-		List<Role> rolesToAdd = new ArrayList<>();
-		for (String s : arguments)
-		{
-			rolesToAdd.add(guild.getRolesByName(s, false).get(0));
-		}
-
-		try
-		{
-			// TODO : Check old roles a bit closer to adding.
-			// Sometimes says did not add any roles when it did something
-			List<Role> oldRoles = member.getRoles();
-			guildController.addRolesToMember(member, rolesToAdd).queue(a -> {
-				List<Role> newRoles = new ArrayList<>(member.getRoles());
-				newRoles.removeAll(oldRoles);
-
-				String msg = new String();
-				if (newRoles == null || newRoles.isEmpty())
-				{
-					msg = "Did not add any roles";
-				}
-				else
-				{
-					msg = "Successfully added roles to "
-							+ member.getEffectiveName() + ":\n";
-					msg += Helpers.listWithoutBrackets(
-							Helpers.getNamesFrom(newRoles));
-				}
-				Helpers.send(channel, msg);
-			});
-		}
-		catch (Exception ex)
-		{
-			ex.printStackTrace();
-		}
+		changeRoles(member, rolesToAdd, Collections.emptyList())
+				.whenComplete((change, ex) -> {
+					String msg;
+					if (ex != null)
+					{
+						msg = "Failed to add roles to "
+								+ member.getEffectiveName();
+					}
+					else if (change.getAdded().isEmpty())
+					{
+						msg = "Did not add any roles";
+					}
+					else
+					{
+						msg = "Successfully added roles to "
+								+ member.getEffectiveName() + ":\n";
+						msg += Helpers.listWithoutBrackets(
+								Helpers.getNamesFrom(change.getAdded()));
+					}
+					if (change != null)
+					{
+						msg += skippedNote(change);
+					}
+					Helpers.send(channel, msg, Priority.HIGH);
+				});
 	}
 
 	/**
 	 * Removes a role from a member
 	 * 
+	 * @param ctx
+	 *            the context of the invoking command
 	 * @param argument
 	 *            the name of the role to remove
 	 * @param member
 	 *            the member to modify
 	 */
-	private void removeRole(String argument, Member member)
+	private void removeRole(CommandContext ctx, String argument,
+			Member member)
 	{
+		MessageChannel channel = ctx.getChannel();
+		Guild guild = ctx.getGuild();
+
 		try
 		{
-			List<Role> guildRoles = guild.getRolesByName(argument, false);
-			if (guildRoles.isEmpty())
+			Role r = roles.get(guild, argument);
+			if (r == null)
 			{
 				Helpers.send(channel, "Role " + argument
 						+ " does not exist. Maybe try creating it first");
 				return;
 			}
-			Role r = guildRoles.get(0);
 
 			List<Role> oldRoles = member.getRoles();
 			if (!oldRoles.contains(r))
@@ -269,13 +353,32 @@ public class RoleModule extends Module
 				return;
 			}
 
-			guildController.removeSingleRoleFromMember(member, r).queue(a -> {
-				Helpers.send(channel, "Removed role " + r.getName() + " from "
-						+ member.getEffectiveName());
-			}, b -> {
-				Helpers.send(channel, "Failed to remove role " + r.getName()
-						+ " from " + member.getEffectiveName());
-			});
+			changeRoles(member, Collections.emptyList(),
+					Collections.singletonList(r)).whenComplete((change, b) -> {
+						String msg;
+						if (b != null)
+						{
+							msg = "Failed to remove role " + r.getName()
+									+ " from " + member.getEffectiveName();
+						}
+						else if (!change.getRemoved().isEmpty())
+						{
+							msg = "Removed role " + r.getName() + " from "
+									+ member.getEffectiveName();
+						}
+						else if (!change.getSkipped().isEmpty())
+						{
+							msg = "Cannot remove role " + r.getName() + ": "
+									+ change.getSkipped().get(r);
+						}
+						else
+						{
+							// Removed by an earlier request in the same batch
+							msg = argument + " is not assigned to "
+									+ member.getEffectiveName();
+						}
+						Helpers.send(channel, msg, Priority.HIGH);
+					});
 		}
 		catch (Exception ex)
 		{
@@ -288,14 +391,19 @@ public class RoleModule extends Module
 	 * Remove multiple roles from a Member After removal, announce which roles
 	 * were removed. If no roles were removed, sends "Did not remove any roles"
 	 * 
-	 * @param arguments
-	 *            the names of the roles to remove
+	 * @param ctx
+	 *            the context of the invoking command
+	 * @param rolesToRemove
+	 *            the roles to remove
 	 * @param member
 	 *            the member to modify
 	 */
-	private void removeRoles(List<String> arguments, Member member)
+	private void removeRoles(CommandContext ctx, List<Role> rolesToRemove,
+			Member member)
 	{
-		if (arguments.isEmpty())
+		MessageChannel channel = ctx.getChannel();
+
+		if (rolesToRemove.isEmpty())
 		{
 			Helpers.send(channel, "No roles to remove");
 			return;
@@ -306,39 +414,31 @@ public class RoleModule extends Module
 			return;
 		}
 
-		List<Role> rolesToRemove = new ArrayList<>();
-		for (String s : arguments)
-		{
-			rolesToRemove.add(guild.getRolesByName(s, false).get(0));
-		}
-
-		try
-		{
-			List<Role> oldRoles = new ArrayList<>(member.getRoles());
-			guildController.removeRolesFromMember(member, rolesToRemove)
-					.queue(a -> {
-						List<Role> newRoles = member.getRoles();
-						oldRoles.removeAll(newRoles);
-
-						String msg = new String();
-						if (oldRoles == null || oldRoles.isEmpty())
-						{
-							msg = "Did not remove any roles";
-						}
-						else
-						{
-							msg = "Successfully removed roles from "
-									+ member.getEffectiveName() + ":\n";
-							msg += Helpers.listWithoutBrackets(
-									Helpers.getNamesFrom(oldRoles));
-						}
-						Helpers.send(channel, msg);
-					});
-		}
-		catch (Exception ex)
-		{
-			ex.printStackTrace();
-		}
+		changeRoles(member, Collections.emptyList(), rolesToRemove)
+				.whenComplete((change, ex) -> {
+					String msg;
+					if (ex != null)
+					{
+						msg = "Failed to remove roles from "
+								+ member.getEffectiveName();
+					}
+					else if (change.getRemoved().isEmpty())
+					{
+						msg = "Did not remove any roles";
+					}
+					else
+					{
+						msg = "Successfully removed roles from "
+								+ member.getEffectiveName() + ":\n";
+						msg += Helpers.listWithoutBrackets(
+								Helpers.getNamesFrom(change.getRemoved()));
+					}
+					if (change != null)
+					{
+						msg += skippedNote(change);
+					}
+					Helpers.send(channel, msg, Priority.HIGH);
+				});
 	}
 
 	/**
@@ -346,315 +446,326 @@ public class RoleModule extends Module
 	 * Create a mentionable role in a guild. Do not allow multiple roles of the
 	 * same name to exist
 	 * 
+	 * @param ctx
+	 *            the context of the invoking command. The role is created in
+	 *            its guild
 	 * @param arguments
 	 *            the name of the mentionable role to create
-	 * @param guild
-	 *            the guild in which to create the role
 	 * @return the successfully-created role, null if no roles were created
 	 */
-	private void createRole(String argument, Guild guild)
+	private void createRole(CommandContext ctx, String argument)
 	{
-		List<Role> existingRoles = guild.getRolesByName(argument, false);
-		if (!existingRoles.isEmpty())
+		MessageChannel channel = ctx.getChannel();
+		if (roles.get(ctx.getGuild(), argument) != null)
 		{
 			Helpers.send(channel, "Role " + argument + " already exists.");
 		}
+		else if (!usable.get(ctx.getGuild()).canManageRoles())
+		{
+			Helpers.send(channel, "Cannot create role " + argument
+					+ ": the bot lacks the Manage Roles permission");
+		}
 		else
 		{
-			createMentionableRole(argument);
+			createMentionableRole(ctx, argument).whenComplete((r, ex) -> {
+				if (ex == null)
+				{
+					Helpers.send(channel,
+							"Created mentionable role " + r.getName(),
+							Priority.HIGH);
+				}
+				else
+				{
+					Helpers.send(channel, "Failed to create role " + argument,
+							Priority.HIGH);
+				}
+			});
 		}
 	}
 
 	/**
 	 * 
-	 * Create multiple mentionable roles in a guild
+	 * Create multiple mentionable roles in a guild. A few are created at a
+	 * time (`roles.create.parallel`, see Config), and one summary is sent once
+	 * all of them have finished
 	 * 
+	 * @param ctx
+	 *            the context of the invoking command. The roles are created in
+	 *            its guild
 	 * @param arguments
 	 *            the names of the mentionable roles to create
-	 * @param guild
-	 *            the guild in which to create the roles
-	 * @return the successfully-created roles, null if no roles were created
 	 */
-	private void createRoles(List<String> arguments, Guild guild)
+	private void createRoles(CommandContext ctx, List<String> arguments)
 	{
-		List<String> noAdd = new ArrayList<>();
-		for (String s : arguments)
+		MessageChannel channel = ctx.getChannel();
+		Guild guild = ctx.getGuild();
+		if (!usable.get(guild).canManageRoles())
+		{
+			Helpers.send(channel,
+					"Cannot create roles: the bot lacks the Manage Roles permission");
+			return;
+		}
+
+		List<String> existing = new ArrayList<>();
+		List<String> toCreate = new ArrayList<>();
+		for (String s : new LinkedHashSet<>(arguments))
 		{
-			if (!guild.getRolesByName(s, false).isEmpty())
+			if (roles.get(guild, s) != null)
 			{
-				noAdd.add(s);
+				existing.add(s);
 			}
 			else
 			{
-				createMentionableRole(s);
+				toCreate.add(s);
 			}
 		}
 
-		arguments.removeAll(noAdd);
-		String msg;
-		if (arguments.isEmpty())
-		{
-			msg = "Did not create any roles";
-		}
-		else
-		{
-			msg = "Successfully created roles:\n";
-			msg += Helpers.listWithoutBrackets(arguments);
-		}
-		Helpers.send(channel, msg);
+		List<CompletableFuture<Role>> created = Workers.throttle(toCreate,
+				maxParallelCreates, name -> createMentionableRole(ctx, name));
+		CompletableFuture.allOf(created.toArray(new CompletableFuture<?>[0]))
+				.whenComplete((a, b) -> {
+					List<String> succeeded = new ArrayList<>();
+					List<String> failed = new ArrayList<>();
+					for (int i = 0; i < created.size(); i++)
+					{
+						if (created.get(i).isCompletedExceptionally())
+						{
+							failed.add(toCreate.get(i));
+						}
+						else
+						{
+							succeeded.add(created.get(i).join().getName());
+						}
+					}
+
+					String msg;
+					if (succeeded.isEmpty())
+					{
+						msg = "Did not create any roles";
+					}
+					else
+					{
+						msg = "Successfully created roles:\n";
+						msg += Helpers.listWithoutBrackets(succeeded);
+					}
+					if (!existing.isEmpty())
+					{
+						msg += "\nAlready existed: "
+								+ Helpers.listWithoutBrackets(existing);
+					}
+					if (!failed.isEmpty())
+					{
+						msg += "\nFailed to create: "
+								+ Helpers.listWithoutBrackets(failed);
+					}
+					Helpers.send(channel, msg, Priority.HIGH);
+				});
 	}
 
 	/**
 	 * List all members of the current guild with the provided role
 	 * 
+	 * @param ctx
+	 *            the context of the invoking command
 	 * @param argument
 	 *            the name of the role to search membership
 	 */
-	private void membersWith(String argument)
+	private void membersWith(CommandContext ctx, String argument)
 	{
-		List<Role> matchingRoles = guild.getRolesByName(argument, false);
-		if (matchingRoles.isEmpty())
+		MessageChannel channel = ctx.getChannel();
+		Guild guild = ctx.getGuild();
+
+		Role role = roles.get(guild, argument);
+		if (role == null)
 		{
 			Helpers.send(channel, "No role with name " + argument
 					+ ". See `listAll` for available roles");
 			return;
 		}
-		List<Member> members = guild.getMembersWithRoles(matchingRoles);
-		if (members.isEmpty())
+		int page = page(ctx, 1);
+		if (page < 0)
+		{
+			return;
+		}
+		List<String> names = members.names(role);
+		if (names.isEmpty())
 		{
 			Helpers.send(channel, "No members with role " + argument);
 			return;
 		}
 
-		String out = members.size() + " members with role " + argument + ":\n";
-		List<String> namesList = Helpers.getNamesFrom(members);
-		out += Helpers.listWithoutBrackets(namesList);
-		Helpers.send(channel, out);
+		Helpers.send(channel,
+				Pager.render(names.size() + " members with role " + argument,
+						names, page, more("membersWith " + argument)));
 	}
 
-	// Functions
 	/**
-	 * Parse and carry out specified the user's commands
-	 * <p>
-	 * TODO : move majority to <code>handle()</code>
+	 * Show how many members have each role, highest role first
+	 * 
+	 * @param ctx
+	 *            the context of the invoking command
 	 */
-	public void execute(String command)
+	private void roleStats(CommandContext ctx)
 	{
-		switch (command)
+		ResponseSink out = Helpers.sink(ctx.getChannel(), "Members per role",
+				"roles.txt", true);
+		for (Role r : ctx.getGuild().getRoles())
 		{
-			case "help":
+			if (!r.isPublicRole())
 			{
-				Helpers.send(channel, "`help` command invoked");
-				help();
-				break;
+				out.line(String.format("%7d %s", members.count(r), r.getName()));
 			}
+		}
+		out.send();
+	}
 
-			case "list":
-			{
-				Helpers.send(channel, "`list` command invoked");
-
-				try
-				{
-					List<Role> memberRoles = new ArrayList<>(member.getRoles());
-					memberRoles.remove(guild.getPublicRole());
+	// Commands
 
-					if (memberRoles.isEmpty())
-					{
-						Helpers.send(channel,
-								member.getEffectiveName() + " has no roles");
-						return;
-					}
+	/**
+	 * Read the optional page argument of a paginated command, telling the
+	 * invoker if it is malformed
+	 * 
+	 * @param ctx
+	 *            the context of the invoking command
+	 * @param index
+	 *            which argument holds the page
+	 * @return the page number, or -1 if it is malformed
+	 */
+	private int page(CommandContext ctx, int index)
+	{
+		List<String> args = ctx.getArguments();
+		int page = Pager.parsePage(index < args.size() ? args.get(index) : null);
+		if (page < 0)
+		{
+			Helpers.send(ctx.getChannel(), "Page must be a positive number");
+		}
+		return page;
+	}
 
-					String listMessage = "List of current roles for "
-							+ member.getEffectiveName() + "\n";
-					String roleOutputs = Helpers.listWithoutBrackets(
-							Helpers.getNamesFrom(memberRoles));
-					Helpers.send(channel, listMessage + roleOutputs);
-				}
-				catch (Exception ex)
-				{
-					ex.printStackTrace();
-				}
-				break;
-			}
-			case "listall":
-			{
-				Helpers.send(channel, "`listAll` command invoked");
+	/**
+	 * @param command
+	 *            a command of this module, with its arguments
+	 * @return the full invocation of command, to be followed by a page number
+	 */
+	private String more(String command)
+	{
+		return Global.prefix + " " + identifier + " " + command;
+	}
 
-				List<Role> allRoles = new ArrayList<>(getUsableRoles());
-				allRoles.remove(guild.getPublicRole());
+	private void list(CommandContext ctx)
+	{
+		Member member = ctx.getMember();
+		int page = page(ctx, 0);
+		if (page < 0)
+		{
+			return;
+		}
 
-				String listAllMessage = "List of all available roles\n";
-				String roleOutputs = Helpers
-						.listWithoutBrackets(Helpers.getNamesFrom(allRoles));
-				Helpers.send(channel, listAllMessage + roleOutputs);
-				break;
-			}
+		List<Role> memberRoles = new ArrayList<>(member.getRoles());
+		memberRoles.remove(ctx.getGuild().getPublicRole());
+		if (memberRoles.isEmpty())
+		{
+			Helpers.send(ctx.getChannel(),
+					member.getEffectiveName() + " has no roles");
+			return;
+		}
 
-			case "add":
-			{
-				Helpers.send(channel, "`add` command invoked");
+		// A member has few roles, so sorting them here is cheap
+		Helpers.send(ctx.getChannel(),
+				Pager.render(memberRoles.size() + " current roles for "
+						+ member.getEffectiveName(),
+						Helpers.getNamesFrom(memberRoles), page,
+						more("list")));
+	}
 
-				if (!st.hasMoreTokens())
-				{
-					Helpers.send(channel, "Usage: `addN role`");
-					return;
-				}
-				String argument = st.nextToken();
+	private void listAll(CommandContext ctx)
+	{
+		int page = page(ctx, 0);
+		if (page < 0)
+		{
+			return;
+		}
+		UsableRoles.Snapshot snapshot = usable.get(ctx.getGuild());
+		Helpers.send(ctx.getChannel(),
+				page == 1 ? snapshot.getListAll()
+						: Pager.render(
+								UsableRoles.listAllTitle(snapshot.getNames()),
+								snapshot.getNames(), page, more("listAll")));
+	}
 
-				addRole(argument, member);
-				break;
-			}
-			case "addn":
+	private void addN(CommandContext ctx)
+	{
+		// Collect all the aforementioned roles
+		List<Role> rolesToAdd = new ArrayList<>();
+		for (String argument : ctx.getArguments())
+		{
+			Role r = roles.get(ctx.getGuild(), argument);
+			if (r != null)
 			{
-				Helpers.send(channel, "`addN` command invoked");
-
-				// Collect all the aforementioned roles
-				String argument;
-				List<String> rolesToAdd = new ArrayList<>();
-				final List<Role> allRoles = guild.getRoles();
-				while (st.hasMoreTokens())
-				{
-					argument = st.nextToken();
-					for (Role r : allRoles)
-					{
-						if (argument.equals(r.getName()))
-						{
-							rolesToAdd.add(r.getName());
-							break;
-						}
-					}
-				}
-
-				addRoles(rolesToAdd, member);
-				break;
+				rolesToAdd.add(r);
 			}
+		}
 
-			case "remove":
-			{
-				Helpers.send(channel, "`remove` command invoked");
+		addRoles(ctx, rolesToAdd, ctx.getMember());
+	}
 
-				if (!st.hasMoreTokens())
-				{
-					Helpers.send(channel, "Usage: `remove role`");
-					return;
-				}
-				String argument = st.nextToken();
+	private void removeN(CommandContext ctx)
+	{
+		MessageChannel channel = ctx.getChannel();
 
-				removeRole(argument, member);
-				break;
-			}
-			case "removen":
+		// Collect all the aforementioned roles
+		List<Role> rolesToRemove = new ArrayList<>();
+		final List<Role> potentialRoles = ctx.getMember().getRoles();
+		if (potentialRoles.isEmpty())
+		{
+			Helpers.send(channel, "No roles to remove");
+			return;
+		}
+
+		Set<Role> memberRoles = new HashSet<>(potentialRoles);
+		for (String argument : ctx.getArguments())
+		{
+			Role r = roles.get(ctx.getGuild(), argument);
+			if (r != null && memberRoles.contains(r))
 			{
-				Helpers.send(channel, "`removeN` command invoked");
+				rolesToRemove.add(r);
+			}
+		}
 
-				// Collect all the aforementioned roles
-				String argument;
-				List<String> rolesToRemove = new ArrayList<>();
-				final List<Role> potentialRoles = member.getRoles();
-				if (potentialRoles.isEmpty())
-				{
-					Helpers.send(channel, "No roles to remove");
-					return;
-				}
+		if (rolesToRemove.isEmpty())
+		{
+			Helpers.send(channel, "No roles to remove");
+			return;
+		}
 
-				while (st.hasMoreTokens())
-				{
-					argument = st.nextToken();
-					for (Role r : potentialRoles)
+		removeRoles(ctx, rolesToRemove, ctx.getMember());
+	}
+
+	private void removeAll(CommandContext ctx)
+	{
+		Member member = ctx.getMember();
+		changeRoles(member, Collections.emptyList(), member.getRoles())
+				.whenComplete((change, ex) -> {
+					String out;
+					if (ex != null)
 					{
-						if (argument.equals(r.getName()))
-						{
-							rolesToRemove.add(r.getName());
-							break;
-						}
+						out = "Failed to remove roles from "
+								+ member.getEffectiveName();
 					}
-				}
-
-				if (rolesToRemove.isEmpty())
-				{
-					Helpers.send(channel, "No roles to remove");
-					return;
-				}
-
-				removeRoles(rolesToRemove, member);
-				break;
-			}
-			case "removeall":
-			{
-				Helpers.send(channel, "`removeAll` command invoked");
-
-				List<Role> roles = new ArrayList<>(member.getRoles());
-				List<Role> removed = new ArrayList<>();
-				for (Role r : roles)
-				{
-					try
+					else if (change.getRemoved().isEmpty())
 					{
-						guildController.removeSingleRoleFromMember(member, r)
-								.queue();
-						removed.add(r);
+						out = "Did not remove any roles";
+						out += skippedNote(change);
 					}
-					catch (Exception ex)
+					else
 					{
-						ex.printStackTrace();
+						out = "Roles removed from " + member.getEffectiveName()
+								+ ": ";
+						out += Helpers.listWithoutBrackets(
+								Helpers.getNamesFrom(change.getRemoved()));
+						out += skippedNote(change);
 					}
-				}
-				String out = "Roles removed from " + member.getEffectiveName()
-						+ ": ";
-				out += Helpers.listWithoutBrackets(removed);
-				Helpers.send(channel, out);
-				break;
-			}
-
-			case "create":
-			{
-				Helpers.send(channel, "`create` command invoked");
-
-				if (!st.hasMoreTokens())
-				{
-					Helpers.send(channel, "Usage: `create role`");
-					return;
-				}
-				String argument = st.nextToken();
-
-				createRole(argument, guild);
-				break;
-			}
-			case "createn":
-			{
-				Helpers.send(channel, "`createN` command invoked");
-
-				List<String> rolesToCreate = new ArrayList<>();
-				String argument;
-				while (st.hasMoreTokens())
-				{
-					argument = st.nextToken();
-					rolesToCreate.add(argument);
-				}
-
-				createRoles(rolesToCreate, guild);
-				break;
-			}
-
-			case "memberswith":
-			{
-				Helpers.send(channel, "`membersWith` command invoked");
-
-				if (!st.hasMoreTokens())
-				{
-					Helpers.send(channel, "Usage: `membersWith role`");
-					return;
-				}
-				String argument = st.nextToken();
-				
-				membersWith(argument);
-				break;
-			}
-			default:
-			{
-				Helpers.send(channel, "invalid command invoked");
-				help();
-			}
-		}
+					Helpers.send(ctx.getChannel(), out, Priority.HIGH);
+				});
 	}
 }
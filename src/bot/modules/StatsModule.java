@@ -0,0 +1,60 @@
+package bot.modules;
+
+import bot.CommandContext;
+import bot.Module;
+import bot.Bot;
+import bot.util.Helpers;
+import bot.util.RestScheduler;
+import bot.util.RestScheduler.Priority;
+import bot.util.Workers;
+
+/**
+ * Reports how the bot itself is doing: command queues, outgoing request queues
+ * and background work
+ * 
+ * @author Namdrib
+ *
+ */
+public class StatsModule extends Module
+{
+	public StatsModule(Bot bot)
+	{
+		super(bot, "stats");
+	}
+
+	public StatsModule(Bot bot, String identifier)
+	{
+		super(bot, identifier);
+	}
+
+	@Override
+	protected void setCommandList()
+	{
+		readCommand("help", 0, 0, "help", this::help);
+		readCommand("show", 0, 0, "show", this::show);
+	}
+
+	@Override
+	protected void help(CommandContext ctx)
+	{
+		String helpMessage = " ----- Help message for "
+				+ getClass().getSimpleName() + " -----\n"
+				+ "  `help`: display this help message\n"
+				+ "  `show`: show command, outgoing request and background work statistics\n";
+
+		Helpers.send(ctx.getChannel(), helpMessage, Priority.LOW);
+	}
+
+	private void show(CommandContext ctx)
+	{
+		String out = "```\n";
+		out += "Commands by guild: " + bot.commandStats() + "\n";
+		out += "Commands shed: " + bot.limitStats() + "\n";
+		out += "Events handled: " + bot.eventStats() + "\n";
+		out += "Embeds: " + bot.embedStats() + "\n";
+		out += "Outgoing requests: " + RestScheduler.stats() + "\n";
+		out += "Background tasks pending: " + Workers.pending() + "\n";
+		out += "```";
+		Helpers.send(ctx.getChannel(), out);
+	}
+}
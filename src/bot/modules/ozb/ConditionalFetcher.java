@@ -0,0 +1,127 @@
+package bot.modules.ozb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Repeatedly fetches one URL using conditional GETs. The ETag and
+ * Last-Modified validators from the previous response are sent back, so an
+ * unchanged page costs a bodiless 304 rather than a full download. Not
+ * thread-safe; each instance is only used by its own polling task
+ *
+ * @author Namdrib
+ *
+ */
+public class ConditionalFetcher
+{
+	private static final int	timeoutMillis	= 10_000;
+
+	private final String		url;
+	private String				etag;
+	private String				lastModified;
+	private String				body;
+
+	public ConditionalFetcher(String url)
+	{
+		this.url = url;
+	}
+
+	public String getUrl()
+	{
+		return url;
+	}
+
+	/**
+	 * @return the body of the most recent successful fetch, or null if there
+	 *         hasn't been one
+	 */
+	public String getBody()
+	{
+		return body;
+	}
+
+	/**
+	 * Fetch the URL if it has changed since the last fetch. Blocks
+	 *
+	 * @return true iff a new body was downloaded (see getBody()), false if the
+	 *         server reported it unchanged
+	 * @throws IOException
+	 *             if the request failed or returned an error status
+	 */
+	public boolean fetch() throws IOException
+	{
+		HttpURLConnection conn = open(url);
+		try
+		{
+			if (body != null && etag != null)
+			{
+				conn.setRequestProperty("If-None-Match", etag);
+			}
+			if (body != null && lastModified != null)
+			{
+				conn.setRequestProperty("If-Modified-Since", lastModified);
+			}
+
+			int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+			{
+				return false;
+			}
+			if (status != HttpURLConnection.HTTP_OK)
+			{
+				throw new IOException(url + " returned HTTP " + status);
+			}
+
+			String newBody = read(conn.getInputStream());
+			etag = conn.getHeaderField("ETag");
+			lastModified = conn.getHeaderField("Last-Modified");
+
+			// Servers without validators always send a body, so compare it
+			boolean changed = !newBody.equals(body);
+			body = newBody;
+			return changed;
+		}
+		finally
+		{
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Open a GET connection to url with the bot's timeouts and user agent
+	 *
+	 * @param url
+	 *            the URL to fetch
+	 * @return the unconnected connection, ready for more request headers
+	 * @throws IOException
+	 *             if url is malformed
+	 */
+	static HttpURLConnection open(String url) throws IOException
+	{
+		HttpURLConnection conn = (HttpURLConnection) new URL(url)
+				.openConnection();
+		conn.setConnectTimeout(timeoutMillis);
+		conn.setReadTimeout(timeoutMillis);
+		conn.setRequestProperty("User-Agent", "N3amBot");
+		return conn;
+	}
+
+	private static String read(InputStream in) throws IOException
+	{
+		try (InputStream input = in)
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = input.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
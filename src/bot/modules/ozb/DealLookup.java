@@ -0,0 +1,140 @@
+package bot.modules.ozb;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import bot.util.Config;
+import bot.util.TtlCache;
+
+/**
+ * Fetches and parses (see DealPageParser) OzBargain deal pages, keeping
+ * recently parsed deals in a TtlCache keyed by node id. Settings (see Config):
+ * <ul>
+ * <li>`ozb.baseUrl`: site to fetch deals from</li>
+ * <li>`ozb.cache.size`: maximum number of deals to remember</li>
+ * <li>`ozb.cache.ttlSeconds`: how long a deal's votes etc. are reused</li>
+ * </ul>
+ *
+ * @author Namdrib
+ *
+ */
+public class DealLookup
+{
+	private final String					baseUrl;
+	private final TtlCache<Long, OzbDeal>	cache;
+
+	public DealLookup()
+	{
+		this(Config.get("ozb.baseUrl", "https://www.ozbargain.com.au"),
+				Config.getInt("ozb.cache.size", 500),
+				Config.getLong("ozb.cache.ttlSeconds", 120));
+	}
+
+	/**
+	 * @param baseUrl
+	 *            site to fetch deals from, without trailing slash
+	 * @param cacheSize
+	 *            maximum number of deals to remember
+	 * @param ttlSeconds
+	 *            how long a parsed deal is reused before fetching it again
+	 */
+	public DealLookup(String baseUrl, int cacheSize, long ttlSeconds)
+	{
+		this.baseUrl = baseUrl;
+		cache = new TtlCache<>(cacheSize, ttlSeconds, TimeUnit.SECONDS);
+	}
+
+	public String getBaseUrl()
+	{
+		return baseUrl;
+	}
+
+	/**
+	 * @param nodeId
+	 *            the deal's node id
+	 * @return the URL of the deal's page
+	 */
+	public String urlFor(long nodeId)
+	{
+		return baseUrl + "/node/" + nodeId;
+	}
+
+	/**
+	 * Look up a deal, from the cache if fresh, otherwise by fetching it (off
+	 * the calling thread)
+	 *
+	 * @param nodeId
+	 *            the deal's node id
+	 * @return a future completed with the deal, with null if the node is not a
+	 *         deal (e.g. a forum post), or exceptionally if the page could not
+	 *         be fetched or read
+	 */
+	public CompletableFuture<OzbDeal> lookup(long nodeId)
+	{
+		return cache.get(nodeId, this::fetch);
+	}
+
+	/**
+	 * Cache a deal that was fetched some other way (e.g. by DealWatcher), so
+	 * lookups can use it
+	 *
+	 * @param deal
+	 *            the freshly fetched deal
+	 */
+	public void remember(OzbDeal deal)
+	{
+		cache.put(deal.getNodeId(), deal);
+	}
+
+	/**
+	 * @return hit/miss counters of the deal cache
+	 */
+	public String stats()
+	{
+		return cache.stats();
+	}
+
+	/**
+	 * Fetch and parse a deal page. Blocks. Only as much of the page as
+	 * DealPageParser needs is downloaded
+	 *
+	 * @param nodeId
+	 *            the deal's node id
+	 * @return the deal, or null if the node is not a deal
+	 */
+	private OzbDeal fetch(long nodeId)
+	{
+		String url = urlFor(nodeId);
+		try
+		{
+			HttpURLConnection conn = ConditionalFetcher.open(url);
+			try
+			{
+				if (conn.getResponseCode() != HttpURLConnection.HTTP_OK)
+				{
+					throw new IOException(
+							url + " returned HTTP " + conn.getResponseCode());
+				}
+				try (Reader in = new InputStreamReader(conn.getInputStream(),
+						StandardCharsets.UTF_8))
+				{
+					return DealPageParser.parse(nodeId, in, url);
+				}
+			}
+			finally
+			{
+				conn.disconnect();
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException(ex);
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package bot.modules.ozb;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Collector;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+
+/**
+ * Reads the summary of a deal out of an OzBargain deal page.
+ *
+ * Everything needed lives near the top of the page, in the deal's own node,
+ * while most of a deal page is comments. So rather than download and build a
+ * DOM for the whole page, the page is read only until every field has been
+ * seen (plus a small margin for the closing tags), and only that prefix is
+ * parsed. A deal without an expiry never shows the last field, so reading
+ * also stops where the comments begin: by then the deal node has ended. The
+ * selectors are compiled once rather than on every lookup
+ *
+ * @author Namdrib
+ *
+ */
+public class DealPageParser
+{
+	private static final Evaluator	dealSelector		= QueryParser
+			.parse(".node-ozbdeal");
+	private static final Evaluator	titleSelector		= QueryParser
+			.parse("title");
+	private static final Evaluator	votesSelector		= QueryParser
+			.parse(".nvb");
+	private static final Evaluator	clicksSelector		= QueryParser
+			.parse(".nodeclicks");
+	private static final Evaluator	submittedSelector	= QueryParser
+			.parse(".submitted");
+	private static final Evaluator	expirySelector		= QueryParser
+			.parse(".nodeexpiry");
+
+	// Text that marks the deal node, then each field within it (the two votes
+	// share a class, so it appears twice)
+	private static final String		dealMarker			= "node-ozbdeal";
+	private static final String[]	fieldMarkers		= { "nvb", "nvb",
+			"nodeclicks", "submitted", "nodeexpiry" };
+	// Text that marks the start of the comments, after the deal node
+	private static final String		commentsMarker		= "id=\"comments\"";
+
+	// How much to keep reading after the last field is found, so that its
+	// contents and closing tag are included
+	private static final int		margin				= 1024;
+	private static final int		chunkSize			= 8192;
+
+	/**
+	 * Parse a deal page that's already in memory
+	 *
+	 * @param nodeId
+	 *            the deal's node id
+	 * @param html
+	 *            the page
+	 * @param baseUri
+	 *            the page's URL
+	 * @return the deal, or null if the page is not a deal
+	 * @throws DealParseException
+	 *             if the page is a deal, but some of its fields are missing
+	 *             or malformed
+	 */
+	public static OzbDeal parse(long nodeId, String html, String baseUri)
+			throws DealParseException
+	{
+		try
+		{
+			return parse(nodeId, new StringReader(html), baseUri);
+		}
+		catch (DealParseException ex)
+		{
+			throw ex;
+		}
+		catch (IOException ex)
+		{
+			// StringReader doesn't throw
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Parse a deal page as it is read. Stops reading once every field has been
+	 * found. Does not close in
+	 *
+	 * @param nodeId
+	 *            the deal's node id
+	 * @param in
+	 *            the page
+	 * @param baseUri
+	 *            the page's URL
+	 * @return the deal, or null if the page is not a deal
+	 * @throws DealParseException
+	 *             if the page is a deal, but some of its fields are missing
+	 *             or malformed
+	 * @throws IOException
+	 *             if in could not be read
+	 */
+	public static OzbDeal parse(long nodeId, Reader in, String baseUri)
+			throws IOException
+	{
+		return fromDocument(nodeId, Jsoup.parse(readDealPrefix(in), baseUri));
+	}
+
+	/**
+	 * Read a deal out of a parsed page, or part of one
+	 *
+	 * @param nodeId
+	 *            the deal's node id
+	 * @param doc
+	 *            the page
+	 * @return the deal, or null if the page is not a deal
+	 * @throws DealParseException
+	 *             if the page is a deal, but some of its fields are missing
+	 *             or malformed
+	 */
+	static OzbDeal fromDocument(long nodeId, Document doc)
+			throws DealParseException
+	{
+		// Check it's actually a deal, not a forum post etc.
+		if (first(dealSelector, doc) == null)
+		{
+			return null;
+		}
+
+		Elements dealVotes = Collector.collect(votesSelector, doc);
+		if (dealVotes.size() < 2)
+		{
+			throw new DealParseException(nodeId, "no vote counts");
+		}
+		int upvotes = votes(nodeId, dealVotes.get(0));
+		int downvotes = votes(nodeId, dealVotes.get(1));
+		Element clicks = first(clicksSelector, doc);
+		if (clicks == null)
+		{
+			throw new DealParseException(nodeId, "no click count");
+		}
+
+		// TODO: Better way of getting submitted datetime info
+		Element submittedElement = first(submittedSelector, doc);
+		if (submittedElement == null)
+		{
+			throw new DealParseException(nodeId, "no submission details");
+		}
+		String submitted = submittedElement.ownText();
+		int edited = submitted.indexOf(" Last edited");
+		String submitDateTime = (edited < 0 ? submitted
+				: submitted.substring(0, edited)).trim();
+		Element expiry = first(expirySelector, doc);
+		Element title = first(titleSelector, doc);
+
+		return new OzbDeal(nodeId, title == null ? "" : title.text().trim(),
+				upvotes, downvotes, clicks.text().trim(), submitDateTime,
+				expiry == null ? "never" : expiry.text().trim());
+	}
+
+	private static int votes(long nodeId, Element votes)
+			throws DealParseException
+	{
+		try
+		{
+			return Integer.parseInt(votes.text().trim());
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new DealParseException(nodeId,
+					"vote count is not a number: " + votes.text());
+		}
+	}
+
+	private static Element first(Evaluator selector, Document doc)
+	{
+		return Collector.collect(selector, doc).first();
+	}
+
+	/**
+	 * Read from in until the deal node and all its fields have been seen, or
+	 * until the comments begin, or until the end if neither happens
+	 *
+	 * @return the part of the page that was read
+	 */
+	private static String readDealPrefix(Reader in) throws IOException
+	{
+		StringBuilder page = new StringBuilder(chunkSize * 4);
+		char[] buffer = new char[chunkSize];
+
+		int dealAt = -1;
+		int searchFrom = 0;
+		int commentsAt = -1;
+		int commentsFrom = 0;
+		int nextField = 0;
+		int lastFieldAt = 0;
+		int stopAt = Integer.MAX_VALUE;
+
+		int n;
+		while (page.length() < stopAt && (n = in.read(buffer)) != -1)
+		{
+			page.append(buffer, 0, n);
+
+			if (commentsAt < 0)
+			{
+				commentsAt = page.indexOf(commentsMarker, commentsFrom);
+				// The markers may straddle the chunk boundary
+				commentsFrom = Math.max(0,
+						page.length() - commentsMarker.length());
+			}
+
+			if (dealAt < 0)
+			{
+				dealAt = page.indexOf(dealMarker, searchFrom);
+				if (dealAt < 0)
+				{
+					if (commentsAt >= 0)
+					{
+						// Comments, but no deal before them: not a deal
+						stopAt = commentsAt;
+					}
+					searchFrom = Math.max(0,
+							page.length() - dealMarker.length());
+					continue;
+				}
+			}
+
+			// Fields may appear in any order within the deal, so each is
+			// looked for from the start of the deal node
+			while (nextField < fieldMarkers.length)
+			{
+				int at = indexOf(page, fieldMarkers[nextField], dealAt,
+						nextField);
+				if (at < 0)
+				{
+					break;
+				}
+				lastFieldAt = Math.max(lastFieldAt, at);
+				nextField++;
+			}
+			if (nextField == fieldMarkers.length)
+			{
+				stopAt = lastFieldAt + margin;
+			}
+			else if (commentsAt > dealAt)
+			{
+				// The deal node has ended without the remaining fields (e.g. a
+				// deal that never expires)
+				stopAt = commentsAt;
+			}
+		}
+
+		if (page.length() > stopAt)
+		{
+			page.setLength(stopAt);
+		}
+		return page.toString();
+	}
+
+	/**
+	 * Find a field marker, skipping earlier occurrences of the same marker
+	 * that belong to previous fields (i.e. the first vote count when looking
+	 * for the second)
+	 */
+	private static int indexOf(StringBuilder page, String marker, int from,
+			int field)
+	{
+		int at = page.indexOf(marker, from);
+		for (int i = 0; i < field && at >= 0; i++)
+		{
+			if (fieldMarkers[i].equals(marker))
+			{
+				at = page.indexOf(marker, at + marker.length());
+			}
+		}
+		return at;
+	}
+}
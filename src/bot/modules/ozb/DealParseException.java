@@ -0,0 +1,26 @@
+package bot.modules.ozb;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a page is a deal, but a field of the deal can't be read from it
+ * (e.g. because OzBargain's layout changed)
+ *
+ * @author Namdrib
+ *
+ */
+public class DealParseException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param nodeId
+	 *            the deal's node id
+	 * @param problem
+	 *            what couldn't be read, e.g. "no click count"
+	 */
+	public DealParseException(long nodeId, String problem)
+	{
+		super("Deal " + nodeId + ": " + problem);
+	}
+}
@@ -0,0 +1,183 @@
+package bot.modules.ozb;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bot.EmbedHandler;
+import bot.util.Config;
+import bot.util.Helpers;
+import bot.util.RestScheduler.Priority;
+import net.dv8tion.jda.core.entities.MessageEmbed;
+import net.dv8tion.jda.core.entities.TextChannel;
+
+/**
+ * Replies to deal links in ordinary messages with a one-line summary of the
+ * deal's votes and expiry, without anyone having to run `ozb info`. Runs on
+ * the EmbedPipeline, so only in channels listed in `embeds.ozb.channels`, and
+ * only for messages with link previews (a link wrapped in <> is left alone).
+ *
+ * Messages are checked for deal links with indexOf before anything else. A
+ * deal already summarised in a channel within the last
+ * `ozb.unfurl.windowSeconds` is not summarised there again (unless looking
+ * it up failed), and at most `ozb.unfurl.maxLinks` deals are summarised per
+ * message. Deals are looked up
+ * through the shared DealLookup, so a deal pasted in several channels at once
+ * is fetched once
+ *
+ * @author Namdrib
+ *
+ */
+public class DealUnfurler implements EmbedHandler
+{
+	private static final String				marker		= "ozbargain.com.au/node/";
+
+	private static final long				window		= TimeUnit.SECONDS
+			.toNanos(Config.getLong("ozb.unfurl.windowSeconds", 600));
+	private static final int				maxLinks	= Config
+			.getInt("ozb.unfurl.maxLinks", 3);
+	// Forget claims older than the window once every this many claims
+	private static final int				pruneEvery	= 256;
+
+	private final DealLookup				deals;
+
+	// "channelId:nodeId" -> when the deal was last summarised there
+	private final Map<String, Long>			recent		= new ConcurrentHashMap<>();
+	private final AtomicLong				claims		= new AtomicLong();
+
+	// Metrics
+	private final AtomicLong				unfurled	= new AtomicLong();
+	private final AtomicLong				suppressed	= new AtomicLong();
+	private final AtomicLong				failed		= new AtomicLong();
+
+	/**
+	 * @param deals
+	 *            where to look deals up
+	 */
+	public DealUnfurler(DealLookup deals)
+	{
+		this.deals = deals;
+	}
+
+	@Override
+	public void handleEmbeds(TextChannel channel, long messageId,
+			String content, List<MessageEmbed> embeds)
+	{
+		Set<Long> nodes = new LinkedHashSet<>();
+		if (content != null)
+		{
+			findNodes(content, nodes);
+		}
+		for (MessageEmbed embed : embeds)
+		{
+			if (embed.getUrl() != null)
+			{
+				findNodes(embed.getUrl(), nodes);
+			}
+		}
+
+		int sent = 0;
+		for (long nodeId : nodes)
+		{
+			if (sent == maxLinks)
+			{
+				break;
+			}
+			String key = channel.getIdLong() + ":" + nodeId;
+			long now = System.nanoTime();
+			if (!claim(key, now))
+			{
+				suppressed.incrementAndGet();
+				continue;
+			}
+			sent++;
+			deals.lookup(nodeId).whenComplete((deal, ex) -> {
+				if (ex != null)
+				{
+					// Let the next mention of the deal try again
+					failed.incrementAndGet();
+					recent.remove(key, now);
+				}
+				else if (deal != null)
+				{
+					unfurled.incrementAndGet();
+					Helpers.send(channel, summary(deal), Priority.LOW);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Add the node ids of all deal links in text to nodes
+	 */
+	private static void findNodes(String text, Set<Long> nodes)
+	{
+		for (int i = text.indexOf(marker); i >= 0; i = text.indexOf(marker,
+				i + marker.length()))
+		{
+			long nodeId = OzbDeal.nodeIdAt(text, i + marker.length());
+			if (nodeId >= 0)
+			{
+				nodes.add(nodeId);
+			}
+		}
+	}
+
+	/**
+	 * Record that a deal is about to be summarised in a channel
+	 *
+	 * @param key
+	 *            "channelId:nodeId"
+	 * @param now
+	 *            the current System.nanoTime(), recorded as the claim's time
+	 * @return true iff it hasn't been within the window, so should be
+	 */
+	private boolean claim(String key, long now)
+	{
+		if (claims.incrementAndGet() % pruneEvery == 0)
+		{
+			recent.values().removeIf(t -> now - t >= window);
+		}
+
+		boolean[] claimed = { false };
+		recent.compute(key, (k, last) -> {
+			if (last != null && now - last < window)
+			{
+				return last;
+			}
+			claimed[0] = true;
+			return now;
+		});
+		return claimed[0];
+	}
+
+	/**
+	 * @return the deal's title, votes and expiry on one line
+	 */
+	private static String summary(OzbDeal deal)
+	{
+		String out = "**" + deal.getTitle() + "** | " + deal.getNetVotes()
+				+ " net (+" + deal.getUpvotes() + "/-" + deal.getDownvotes()
+				+ ")";
+		if (deal.getExpiry() != null && !deal.getExpiry().isEmpty())
+		{
+			out += " | expires " + deal.getExpiry();
+		}
+		return out;
+	}
+
+	/**
+	 * @return human-readable counts of deals summarised, skipped because they
+	 *         were summarised recently, and not summarised because the lookup
+	 *         failed
+	 */
+	public String stats()
+	{
+		return "unfurled " + unfurled.get() + ", suppressed " + suppressed.get()
+				+ ", failed " + failed.get();
+	}
+}
@@ -0,0 +1,528 @@
+package bot.modules.ozb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+import bot.util.Config;
+import bot.util.Helpers;
+import bot.util.Workers;
+import net.dv8tion.jda.core.entities.MessageChannel;
+
+/**
+ * Polls OzBargain in the background on behalf of subscribed channels:
+ * <ul>
+ * <li>keyword watches: new deals in the deals feed whose title contains a
+ * keyword are posted to the channel</li>
+ * <li>vote watches: the channel is told (once) when a deal's net votes reach a
+ * threshold</li>
+ * </ul>
+ * Each URL (the feed, or one deal page) is polled by exactly one task no matter
+ * how many channels are interested in it, using conditional GETs so unchanged
+ * pages are not downloaded again. Deal polls are staggered across the polling
+ * period so they don't all fire at once. A URL stops being polled when its last
+ * subscriber leaves. Settings (see Config):
+ * <ul>
+ * <li>`ozb.feedUrl`: the deals RSS feed</li>
+ * <li>`ozb.watch.feedSeconds`: how often to poll the feed</li>
+ * <li>`ozb.watch.dealSeconds`: how often to poll each watched deal</li>
+ * <li>`ozb.watch.maxChannelKeywords`, `ozb.watch.maxChannelDeals`: the most
+ * keywords and deals one channel may watch</li>
+ * <li>`ozb.watch.maxKeywords`, `ozb.watch.maxDeals`: the most keywords and
+ * distinct deals watched across all channels</li>
+ * <li>`ozb.watch.threads`: threads polling (and blocking on) OzBargain</li>
+ * </ul>
+ *
+ * @author Namdrib
+ *
+ */
+public class DealWatcher
+{
+	/**
+	 * A URL being polled, and what was seen on the previous poll
+	 */
+	private static class Poll
+	{
+		final ConditionalFetcher	fetcher;
+		ScheduledFuture<?>			task;
+		Set<Long>					seenNodes;
+		// The deal as last parsed, for checking thresholds when the page
+		// hasn't changed
+		volatile OzbDeal			deal;
+
+		Poll(String url)
+		{
+			fetcher = new ConditionalFetcher(url);
+		}
+	}
+
+	private static final int					maxChannelKeywords	= Config
+			.getInt("ozb.watch.maxChannelKeywords", 20);
+	private static final int					maxChannelDeals		= Config
+			.getInt("ozb.watch.maxChannelDeals", 10);
+	private static final int					maxKeywords			= Config
+			.getInt("ozb.watch.maxKeywords", 500);
+	private static final int					maxDeals			= Config
+			.getInt("ozb.watch.maxDeals", 200);
+	private static final int					threads				= Math
+			.max(1, Config.getInt("ozb.watch.threads", 2));
+
+	private final DealLookup					deals;
+	private final String						feedUrl;
+	private final long							feedPeriod;
+	private final long							dealPeriod;
+
+	private final ScheduledExecutorService		scheduler	= Executors
+			.newScheduledThreadPool(threads,
+					Workers.daemonThreads("ozb-watch"));
+	private final Map<String, Poll>				polls		= new HashMap<>();
+
+	// channel id -> channel, and the keywords it's watching for
+	private final Map<Long, MessageChannel>		channels	= new ConcurrentHashMap<>();
+	private final Map<Long, Set<String>>		keywords	= new ConcurrentHashMap<>();
+	// node id -> channel id -> net votes at which to notify
+	private final Map<Long, Map<Long, Integer>>	thresholds	= new ConcurrentHashMap<>();
+
+	public DealWatcher(DealLookup deals)
+	{
+		this(deals,
+				Config.get("ozb.feedUrl", deals.getBaseUrl() + "/deals/feed"),
+				Config.getLong("ozb.watch.feedSeconds", 300),
+				Config.getLong("ozb.watch.dealSeconds", 600));
+	}
+
+	/**
+	 * @param deals
+	 *            used to build deal URLs, and kept up to date with polled
+	 *            deals
+	 * @param feedUrl
+	 *            the deals RSS feed
+	 * @param feedSeconds
+	 *            how often to poll the feed
+	 * @param dealSeconds
+	 *            how often to poll each watched deal
+	 */
+	public DealWatcher(DealLookup deals, String feedUrl, long feedSeconds,
+			long dealSeconds)
+	{
+		this.deals = deals;
+		this.feedUrl = feedUrl;
+		feedPeriod = TimeUnit.SECONDS.toMillis(Math.max(1, feedSeconds));
+		dealPeriod = TimeUnit.SECONDS.toMillis(Math.max(1, dealSeconds));
+	}
+
+	/**
+	 * Post new deals whose titles contain any of the keywords (ignoring case)
+	 * to channel. Keywords beyond the channel's or the overall limit are not
+	 * watched
+	 *
+	 * @param channel
+	 *            the subscribing channel
+	 * @param words
+	 *            keywords to watch for
+	 * @return the keywords that were not watched because of a limit
+	 */
+	public synchronized List<String> watchKeywords(MessageChannel channel,
+			Collection<String> words)
+	{
+		Set<String> watched = keywords.computeIfAbsent(channel.getIdLong(),
+				k -> ConcurrentHashMap.newKeySet());
+		int total = keywords.values().stream().mapToInt(Set::size).sum();
+		List<String> refused = new ArrayList<>();
+		for (String word : words)
+		{
+			String keyword = word.toLowerCase();
+			if (watched.contains(keyword))
+			{
+				continue;
+			}
+			if (watched.size() >= maxChannelKeywords || total >= maxKeywords)
+			{
+				refused.add(word);
+				continue;
+			}
+			watched.add(keyword);
+			total++;
+		}
+
+		if (watched.isEmpty())
+		{
+			keywords.remove(channel.getIdLong());
+		}
+		else
+		{
+			channels.put(channel.getIdLong(), channel);
+			startPolling(feedUrl, feedPeriod, this::pollFeed);
+		}
+		return refused;
+	}
+
+	/**
+	 * Tell channel once the deal's net votes reach votes
+	 *
+	 * @param channel
+	 *            the subscribing channel
+	 * @param nodeId
+	 *            the deal to watch
+	 * @param votes
+	 *            net votes at which to notify
+	 * @return false if the deal was not watched because the channel, or all
+	 *         channels together, are already watching as many deals as
+	 *         allowed
+	 */
+	public synchronized boolean watchDeal(MessageChannel channel, long nodeId,
+			int votes)
+	{
+		Map<Long, Integer> watchers = thresholds.get(nodeId);
+		if (watchers == null || !watchers.containsKey(channel.getIdLong()))
+		{
+			// A new deal to poll, or another deal for this channel
+			long watching = thresholds.values().stream()
+					.filter(w -> w.containsKey(channel.getIdLong())).count();
+			if (watching >= maxChannelDeals
+					|| (watchers == null && thresholds.size() >= maxDeals))
+			{
+				return false;
+			}
+		}
+
+		channels.put(channel.getIdLong(), channel);
+		thresholds.computeIfAbsent(nodeId, k -> new ConcurrentHashMap<>())
+				.put(channel.getIdLong(), votes);
+		Poll poll = startPolling(deals.urlFor(nodeId), dealPeriod,
+				p -> pollDeal(p, nodeId));
+
+		// The deal may already be past the threshold, and its page may not
+		// change again for a long time
+		OzbDeal deal = poll.deal;
+		if (deal != null)
+		{
+			scheduler.execute(() -> checkThresholds(poll, deal));
+		}
+		return true;
+	}
+
+	/**
+	 * Stop watching for some keywords in a channel
+	 *
+	 * @param channel
+	 *            the subscribed channel
+	 * @param words
+	 *            keywords to stop watching for
+	 * @return the number of keywords that were being watched
+	 */
+	public synchronized int unwatchKeywords(MessageChannel channel,
+			Collection<String> words)
+	{
+		Set<String> watched = keywords.get(channel.getIdLong());
+		int removed = 0;
+		if (watched != null)
+		{
+			for (String word : words)
+			{
+				removed += watched.remove(word.toLowerCase()) ? 1 : 0;
+			}
+			if (watched.isEmpty())
+			{
+				keywords.remove(channel.getIdLong());
+			}
+		}
+		cleanUp();
+		return removed;
+	}
+
+	/**
+	 * Stop watching a deal's votes in a channel
+	 *
+	 * @param channel
+	 *            the subscribed channel
+	 * @param nodeId
+	 *            the deal to stop watching
+	 * @return true iff the deal was being watched
+	 */
+	public synchronized boolean unwatchDeal(MessageChannel channel,
+			long nodeId)
+	{
+		Map<Long, Integer> watchers = thresholds.get(nodeId);
+		boolean removed = watchers != null
+				&& watchers.remove(channel.getIdLong()) != null;
+		cleanUp();
+		return removed;
+	}
+
+	/**
+	 * Remove every watch in a channel
+	 *
+	 * @param channel
+	 *            the subscribed channel
+	 * @return the number of keywords and deals that were being watched
+	 */
+	public synchronized int unwatchAll(MessageChannel channel)
+	{
+		int removed = 0;
+		Set<String> watched = keywords.remove(channel.getIdLong());
+		if (watched != null)
+		{
+			removed += watched.size();
+		}
+		for (Map<Long, Integer> watchers : thresholds.values())
+		{
+			removed += watchers.remove(channel.getIdLong()) != null ? 1 : 0;
+		}
+		cleanUp();
+		return removed;
+	}
+
+	/**
+	 * @return a description of how much may be watched
+	 */
+	public String describeLimits()
+	{
+		return "at most " + maxChannelKeywords + " keywords and "
+				+ maxChannelDeals + " deals per channel, and "
+				+ maxKeywords + " keywords and " + maxDeals
+				+ " deals in total";
+	}
+
+	/**
+	 * @param channel
+	 *            a channel
+	 * @return a description of everything the channel is watching
+	 */
+	public String describe(MessageChannel channel)
+	{
+		StringBuilder sb = new StringBuilder();
+		Set<String> watched = keywords.get(channel.getIdLong());
+		if (watched != null && !watched.isEmpty())
+		{
+			sb.append("Keywords: ").append(String.join(", ", watched))
+					.append('\n');
+		}
+		for (Map.Entry<Long, Map<Long, Integer>> entry : thresholds
+				.entrySet())
+		{
+			Integer votes = entry.getValue().get(channel.getIdLong());
+			if (votes != null)
+			{
+				sb.append(deals.urlFor(entry.getKey())).append(" at ")
+						.append(votes).append(" votes\n");
+			}
+		}
+		return sb.length() == 0 ? "Not watching anything" : sb.toString();
+	}
+
+	/**
+	 * Schedule a poll of url, unless one is already scheduled. The first poll
+	 * is delayed by an amount derived from the URL, spreading polls of
+	 * different URLs across the period
+	 *
+	 * @return the URL's poll
+	 */
+	private Poll startPolling(String url, long period, Consumer<Poll> check)
+	{
+		Poll existing = polls.get(url);
+		if (existing != null)
+		{
+			return existing;
+		}
+		Poll poll = new Poll(url);
+		long offset = Math.floorMod(url.hashCode(), period);
+		poll.task = scheduler.scheduleWithFixedDelay(() -> {
+			try
+			{
+				check.accept(poll);
+			}
+			catch (RuntimeException ex)
+			{
+				// Never let an exception cancel the schedule
+				ex.printStackTrace();
+			}
+		}, offset, period, TimeUnit.MILLISECONDS);
+		polls.put(url, poll);
+		return poll;
+	}
+
+	/**
+	 * Stop polling URLs nobody is subscribed to any more, and forget channels
+	 * that aren't watching anything
+	 */
+	private void cleanUp()
+	{
+		thresholds.values().removeIf(Map::isEmpty);
+		channels.keySet().removeIf(id -> !keywords.containsKey(id) && thresholds
+				.values().stream().noneMatch(w -> w.containsKey(id)));
+		List<String> unused = new ArrayList<>();
+		for (String url : polls.keySet())
+		{
+			if (url.equals(feedUrl) ? keywords.isEmpty()
+					: !thresholds.containsKey(OzbDeal.nodeIdFrom(url)))
+			{
+				unused.add(url);
+			}
+		}
+		for (String url : unused)
+		{
+			polls.remove(url).task.cancel(false);
+		}
+	}
+
+	/**
+	 * Fetch the feed and post deals that weren't in the previous fetch to the
+	 * channels whose keywords they match. The first fetch only records what's
+	 * already there
+	 */
+	private void pollFeed(Poll poll)
+	{
+		if (!fetch(poll))
+		{
+			return;
+		}
+
+		Document feed = Jsoup.parse(poll.fetcher.getBody(), "",
+				Parser.xmlParser());
+		Set<Long> current = new HashSet<>();
+		Map<Long, StringBuilder> matches = new HashMap<>();
+		for (Element item : feed.select("item"))
+		{
+			Element title = item.selectFirst("title");
+			Element link = item.selectFirst("link");
+			if (title == null || link == null)
+			{
+				continue;
+			}
+			long nodeId = OzbDeal.nodeIdFrom(link.text());
+			current.add(nodeId);
+			if (poll.seenNodes == null || poll.seenNodes.contains(nodeId))
+			{
+				continue;
+			}
+
+			String lowerTitle = title.text().toLowerCase();
+			for (Map.Entry<Long, Set<String>> entry : keywords.entrySet())
+			{
+				for (String word : entry.getValue())
+				{
+					if (lowerTitle.contains(word))
+					{
+						matches.computeIfAbsent(entry.getKey(),
+								k -> new StringBuilder())
+								.append(title.text()).append('\n')
+								.append(link.text()).append('\n');
+						break;
+					}
+				}
+			}
+		}
+		poll.seenNodes = current;
+
+		for (Map.Entry<Long, StringBuilder> entry : matches.entrySet())
+		{
+			// Unless the channel stopped watching meanwhile
+			MessageChannel channel = channels.get(entry.getKey());
+			if (channel != null)
+			{
+				Helpers.send(channel, "New deals matching your keywords:\n"
+						+ entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Fetch a deal and check the channels' vote thresholds against it. If the
+	 * page hasn't changed, thresholds (e.g. of channels that started watching
+	 * since the last poll) are checked against the deal as last parsed
+	 */
+	private void pollDeal(Poll poll, long nodeId)
+	{
+		if (fetch(poll))
+		{
+			try
+			{
+				OzbDeal deal = DealPageParser.parse(nodeId,
+						poll.fetcher.getBody(), poll.fetcher.getUrl());
+				if (deal != null)
+				{
+					poll.deal = deal;
+					deals.remember(deal);
+				}
+			}
+			catch (DealParseException ex)
+			{
+				// Keep checking against the deal as last parsed
+				System.out.println("Could not parse " + poll.fetcher.getUrl()
+						+ ": " + ex.getMessage());
+			}
+		}
+		if (poll.deal != null)
+		{
+			checkThresholds(poll, poll.deal);
+		}
+	}
+
+	/**
+	 * Notify the channels whose vote thresholds the deal has reached. Each
+	 * channel is only notified once, after which its watch is removed
+	 */
+	private void checkThresholds(Poll poll, OzbDeal deal)
+	{
+		Map<Long, Integer> watchers = thresholds.get(deal.getNodeId());
+		if (watchers == null)
+		{
+			return;
+		}
+
+		boolean notified = false;
+		for (Map.Entry<Long, Integer> entry : watchers.entrySet())
+		{
+			MessageChannel channel = channels.get(entry.getKey());
+			if (deal.getNetVotes() >= entry.getValue() && channel != null
+					&& watchers.remove(entry.getKey(), entry.getValue()))
+			{
+				Helpers.send(channel,
+						"Deal reached " + entry.getValue() + " votes:\n"
+								+ deal + "\n" + poll.fetcher.getUrl());
+				notified = true;
+			}
+		}
+		if (notified)
+		{
+			synchronized (this)
+			{
+				cleanUp();
+			}
+		}
+	}
+
+	/**
+	 * @return true iff the URL returned new content
+	 */
+	private static boolean fetch(Poll poll)
+	{
+		try
+		{
+			return poll.fetcher.fetch();
+		}
+		catch (IOException ex)
+		{
+			System.out.println("Could not poll " + poll.fetcher.getUrl()
+					+ ": " + ex.getMessage());
+			return false;
+		}
+	}
+}
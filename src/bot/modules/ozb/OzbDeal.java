@@ -0,0 +1,127 @@
+package bot.modules.ozb;
+
+/**
+ * Immutable summary of an OzBargain deal, as shown by `ozb info`
+ *
+ * @author Namdrib
+ *
+ */
+public final class OzbDeal
+{
+	private final long		nodeId;
+	private final String	title;
+	private final int		upvotes;
+	private final int		downvotes;
+	private final String	clicks;
+	private final String	posted;
+	private final String	expiry;
+
+	public OzbDeal(long nodeId, String title, int upvotes, int downvotes,
+			String clicks, String posted, String expiry)
+	{
+		this.nodeId = nodeId;
+		this.title = title;
+		this.upvotes = upvotes;
+		this.downvotes = downvotes;
+		this.clicks = clicks;
+		this.posted = posted;
+		this.expiry = expiry;
+	}
+
+	/**
+	 * Extract the node id from a deal link, i.e. the digits following
+	 * `/node/`. Does not allocate
+	 *
+	 * @param link
+	 *            link to a deal, e.g.
+	 *            `https://www.ozbargain.com.au/node/123456`
+	 * @return the node id, or -1 if link has none
+	 */
+	public static long nodeIdFrom(String link)
+	{
+		int start = link.indexOf("/node/");
+		if (start < 0)
+		{
+			return -1;
+		}
+		return nodeIdAt(link, start + "/node/".length());
+	}
+
+	/**
+	 * Read a node id starting at a position, e.g. just after `/node/`. Does
+	 * not allocate
+	 *
+	 * @param s
+	 *            text containing the id
+	 * @param start
+	 *            index of the id's first digit
+	 * @return the node id, or -1 if there are no digits at start
+	 */
+	static long nodeIdAt(String s, int start)
+	{
+		long id = 0;
+		int i = start;
+		for (; i < s.length() && i - start < 18; i++)
+		{
+			char c = s.charAt(i);
+			if (c < '0' || c > '9')
+			{
+				break;
+			}
+			id = id * 10 + (c - '0');
+		}
+		return i == start ? -1 : id;
+	}
+
+	public long getNodeId()
+	{
+		return nodeId;
+	}
+
+	public String getTitle()
+	{
+		return title;
+	}
+
+	public int getUpvotes()
+	{
+		return upvotes;
+	}
+
+	public int getDownvotes()
+	{
+		return downvotes;
+	}
+
+	public int getNetVotes()
+	{
+		return upvotes - downvotes;
+	}
+
+	public String getClicks()
+	{
+		return clicks;
+	}
+
+	public String getPosted()
+	{
+		return posted;
+	}
+
+	public String getExpiry()
+	{
+		return expiry;
+	}
+
+	/**
+	 * @return upvotes, downvotes, net votes, number of clicks, date posted and
+	 *         date of expiry over three lines
+	 */
+	@Override
+	public String toString()
+	{
+		return title + "\nUp: " + upvotes + ", Down: " + downvotes + ", Net: "
+				+ getNetVotes() + " " + clicks + "\nPosted " + posted
+				+ ", expires " + expiry;
+	}
+}
@@ -0,0 +1,171 @@
+package bot.modules.role;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+
+/**
+ * A change to one member's roles, worked out locally so it can be sent as a
+ * single modifyMemberRoles request setting the member's complete role set.
+ * Discord applies that request atomically, so if it succeeds, exactly
+ * getAdded() were added and getRemoved() were removed.
+ *
+ * Roles the bot cannot manage (see UsableRoles.Snapshot.whyNot) are checked
+ * locally, left as they are and reported by getSkipped() with the reason, so
+ * no request is made that Discord would refuse. Adding a role the member
+ * already has, or removing one they don't, is not a change and is ignored
+ *
+ * @author Namdrib
+ *
+ */
+public final class RoleChange
+{
+	private final Member		member;
+	private final List<Role>	added;
+	private final List<Role>	removed;
+	private final Map<Role, String>	skipped;
+	private final Set<Role>			result;
+
+	private RoleChange(Member member, List<Role> added, List<Role> removed,
+			Map<Role, String> skipped, Set<Role> result)
+	{
+		this.member = member;
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+		this.skipped = Collections.unmodifiableMap(skipped);
+		this.result = Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Work out the change
+	 *
+	 * @param member
+	 *            the member to change
+	 * @param add
+	 *            roles to give the member
+	 * @param remove
+	 *            roles to take from the member
+	 * @param usable
+	 *            the bot's view of the member's guild (see UsableRoles)
+	 * @return the change, which may be empty
+	 */
+	public static RoleChange plan(Member member, Collection<Role> add,
+			Collection<Role> remove, UsableRoles.Snapshot usable)
+	{
+		return plan(member, member.getRoles(), add, remove, usable);
+	}
+
+	/**
+	 * Work out the change, starting from a given role set rather than the
+	 * member's current roles (e.g. the result of an earlier change that JDA
+	 * has not seen yet)
+	 *
+	 * @param member
+	 *            the member to change
+	 * @param current
+	 *            the member's roles before the change
+	 * @param add
+	 *            roles to give the member
+	 * @param remove
+	 *            roles to take from the member
+	 * @param usable
+	 *            the bot's view of the member's guild (see UsableRoles)
+	 * @return the change, which may be empty
+	 */
+	public static RoleChange plan(Member member, Collection<Role> current,
+			Collection<Role> add, Collection<Role> remove,
+			UsableRoles.Snapshot usable)
+	{
+		Set<Role> result = new LinkedHashSet<>(current);
+		List<Role> added = new ArrayList<>();
+		List<Role> removed = new ArrayList<>();
+		Map<Role, String> skipped = new LinkedHashMap<>();
+
+		for (Role r : add)
+		{
+			if (result.contains(r) || added.contains(r))
+			{
+				continue;
+			}
+			String reason = usable.whyNot(r);
+			if (reason != null)
+			{
+				skipped.put(r, reason);
+				continue;
+			}
+			added.add(r);
+		}
+		for (Role r : remove)
+		{
+			if (!result.contains(r) || removed.contains(r))
+			{
+				continue;
+			}
+			String reason = usable.whyNot(r);
+			if (reason != null)
+			{
+				skipped.put(r, reason);
+				continue;
+			}
+			removed.add(r);
+		}
+
+		result.addAll(added);
+		result.removeAll(removed);
+		return new RoleChange(member, added, removed, skipped, result);
+	}
+
+	public Member getMember()
+	{
+		return member;
+	}
+
+	/**
+	 * @return roles this change gives the member
+	 */
+	public List<Role> getAdded()
+	{
+		return added;
+	}
+
+	/**
+	 * @return roles this change takes from the member
+	 */
+	public List<Role> getRemoved()
+	{
+		return removed;
+	}
+
+	/**
+	 * @return requested roles the bot is not allowed to add or remove, each
+	 *         with the reason why
+	 */
+	public Map<Role, String> getSkipped()
+	{
+		return skipped;
+	}
+
+	/**
+	 * @return the member's complete set of roles after the change
+	 */
+	public Set<Role> getResult()
+	{
+		return result;
+	}
+
+	/**
+	 * @return true iff nothing would change
+	 */
+	public boolean isEmpty()
+	{
+		return added.isEmpty() && removed.isEmpty();
+	}
+}
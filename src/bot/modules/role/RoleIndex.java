@@ -0,0 +1,137 @@
+package bot.modules.role;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bot.BotEventManager;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.role.RoleCreateEvent;
+import net.dv8tion.jda.core.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.core.events.role.update.RoleUpdateNameEvent;
+import net.dv8tion.jda.core.events.role.update.RoleUpdatePositionEvent;
+
+/**
+ * Finds a guild's roles by name in constant time. Each guild's index is built
+ * from its roles the first time it is used, then kept current by role events,
+ * so lookups never scan the guild's roles. Events update an index under its
+ * guild's lock in the map, so an event arriving while the index is being
+ * built waits for it rather than being missed.
+ *
+ * Where several roles share a name, the name maps to the highest of them, as
+ * guild.getRolesByName(name, false).get(0) would return. Names are matched
+ * exactly (case-sensitive)
+ *
+ * @author Namdrib
+ *
+ */
+public class RoleIndex
+{
+	private final Map<Long, Map<String, Role>> guilds = new ConcurrentHashMap<>();
+
+	/**
+	 * Look up a role by name
+	 *
+	 * @param guild
+	 *            the guild to look in
+	 * @param name
+	 *            the role's exact name
+	 * @return the (highest) role in guild called name, or null if there is
+	 *         none
+	 */
+	public Role get(Guild guild, String name)
+	{
+		return index(guild).get(name);
+	}
+
+	private Map<String, Role> index(Guild guild)
+	{
+		return guilds.computeIfAbsent(guild.getIdLong(), k -> {
+			Map<String, Role> byName = new ConcurrentHashMap<>();
+			// Highest first, so the highest of each name is kept
+			for (Role r : guild.getRoles())
+			{
+				byName.putIfAbsent(r.getName(), r);
+			}
+			return byName;
+		});
+	}
+
+	/**
+	 * Point name back at the highest remaining role with that name, if any
+	 */
+	private void reindex(Guild guild, String name)
+	{
+		// If it's not built yet, it will be built from the current roles
+		guilds.computeIfPresent(guild.getIdLong(), (k, byName) -> {
+			// Rare (deletes, renames and reorders), so scanning is fine
+			Role highest = null;
+			for (Role r : guild.getRoles())
+			{
+				if (r.getName().equals(name))
+				{
+					highest = r;
+					break;
+				}
+			}
+			if (highest == null)
+			{
+				byName.remove(name);
+			}
+			else
+			{
+				byName.put(name, highest);
+			}
+			return byName;
+		});
+	}
+
+	/**
+	 * Keep this index current with events from events
+	 *
+	 * @param events
+	 *            the bot's event manager
+	 */
+	public void subscribe(BotEventManager events)
+	{
+		events.subscribe(RoleCreateEvent.class, this::onRoleCreate);
+		events.subscribe(RoleDeleteEvent.class, this::onRoleDelete);
+		events.subscribe(RoleUpdateNameEvent.class, this::onRoleUpdateName);
+		events.subscribe(RoleUpdatePositionEvent.class,
+				this::onRoleUpdatePosition);
+		events.subscribe(GuildLeaveEvent.class, this::onGuildLeave);
+	}
+
+	private void onRoleCreate(RoleCreateEvent e)
+	{
+		guilds.computeIfPresent(e.getGuild().getIdLong(), (k, byName) -> {
+			byName.merge(e.getRole().getName(), e.getRole(),
+					(old, r) -> old.getPosition() >= r.getPosition() ? old
+							: r);
+			return byName;
+		});
+	}
+
+	private void onRoleDelete(RoleDeleteEvent e)
+	{
+		reindex(e.getGuild(), e.getRole().getName());
+	}
+
+	private void onRoleUpdateName(RoleUpdateNameEvent e)
+	{
+		reindex(e.getGuild(), e.getOldName());
+		reindex(e.getGuild(), e.getRole().getName());
+	}
+
+	private void onRoleUpdatePosition(RoleUpdatePositionEvent e)
+	{
+		// Only matters if the name is shared, where the highest must win
+		reindex(e.getGuild(), e.getRole().getName());
+	}
+
+	private void onGuildLeave(GuildLeaveEvent e)
+	{
+		guilds.remove(e.getGuild().getIdLong());
+	}
+}
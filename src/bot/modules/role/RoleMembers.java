@@ -0,0 +1,228 @@
+package bot.modules.role;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bot.BotEventManager;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberNickChangeEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.core.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.core.events.user.update.UserUpdateNameEvent;
+
+/**
+ * Which members have each role, per guild. A guild's index is built with one
+ * pass over its members the first time it is used, then kept current by
+ * member role, join and leave events, so counting a role's members never
+ * scans the guild.
+ *
+ * The sorted names of a role's members are also cached, and dropped when the
+ * role's members change or one of them changes name
+ *
+ * @author Namdrib
+ *
+ */
+public class RoleMembers
+{
+	/**
+	 * One guild's index
+	 */
+	private static class GuildIndex
+	{
+		// Role ID -> IDs of the members with that role
+		final Map<Long, Set<Long>>		byRole	= new ConcurrentHashMap<>();
+		// Role ID -> sorted effective names of those members
+		final Map<Long, List<String>>	names	= new ConcurrentHashMap<>();
+
+		Set<Long> members(long roleId)
+		{
+			return byRole.computeIfAbsent(roleId,
+					k -> ConcurrentHashMap.newKeySet());
+		}
+	}
+
+	private final Map<Long, GuildIndex> guilds = new ConcurrentHashMap<>();
+
+	private GuildIndex index(Guild guild)
+	{
+		return guilds.computeIfAbsent(guild.getIdLong(), k -> {
+			GuildIndex index = new GuildIndex();
+			for (Member m : guild.getMembers())
+			{
+				for (Role r : m.getRoles())
+				{
+					index.members(r.getIdLong()).add(m.getUser().getIdLong());
+				}
+			}
+			return index;
+		});
+	}
+
+	/**
+	 * @param role
+	 *            a role
+	 * @return the number of members with role
+	 */
+	public int count(Role role)
+	{
+		Set<Long> members = index(role.getGuild()).byRole.get(role.getIdLong());
+		return members == null ? 0 : members.size();
+	}
+
+	/**
+	 * @param role
+	 *            a role
+	 * @return the effective names of the members with role, sorted
+	 *         (unmodifiable)
+	 */
+	public List<String> names(Role role)
+	{
+		Guild guild = role.getGuild();
+		GuildIndex index = index(guild);
+		return index.names.computeIfAbsent(role.getIdLong(), k -> {
+			Set<Long> ids = index.byRole.get(k);
+			List<String> out = new ArrayList<>(ids == null ? 0 : ids.size());
+			if (ids != null)
+			{
+				for (long id : ids)
+				{
+					Member m = guild.getMemberById(id);
+					if (m != null)
+					{
+						out.add(m.getEffectiveName());
+					}
+				}
+			}
+			Collections.sort(out);
+			return Collections.unmodifiableList(out);
+		});
+	}
+
+	/**
+	 * Keep this index current with events from events
+	 *
+	 * @param events
+	 *            the bot's event manager
+	 */
+	public void subscribe(BotEventManager events)
+	{
+		events.subscribe(GuildMemberRoleAddEvent.class,
+				this::onGuildMemberRoleAdd);
+		events.subscribe(GuildMemberRoleRemoveEvent.class,
+				this::onGuildMemberRoleRemove);
+		events.subscribe(GuildMemberJoinEvent.class, this::onGuildMemberJoin);
+		events.subscribe(GuildMemberLeaveEvent.class, this::onGuildMemberLeave);
+		events.subscribe(GuildMemberNickChangeEvent.class,
+				this::onGuildMemberNickChange);
+		events.subscribe(UserUpdateNameEvent.class, this::onUserUpdateName);
+		events.subscribe(RoleDeleteEvent.class, this::onRoleDelete);
+		events.subscribe(GuildLeaveEvent.class, this::onGuildLeave);
+	}
+
+	private void onGuildMemberRoleAdd(GuildMemberRoleAddEvent e)
+	{
+		GuildIndex index = guilds.get(e.getGuild().getIdLong());
+		if (index == null)
+		{
+			return;
+		}
+		for (Role r : e.getRoles())
+		{
+			index.members(r.getIdLong()).add(e.getUser().getIdLong());
+			index.names.remove(r.getIdLong());
+		}
+	}
+
+	private void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent e)
+	{
+		GuildIndex index = guilds.get(e.getGuild().getIdLong());
+		if (index == null)
+		{
+			return;
+		}
+		for (Role r : e.getRoles())
+		{
+			index.members(r.getIdLong()).remove(e.getUser().getIdLong());
+			index.names.remove(r.getIdLong());
+		}
+	}
+
+	private void onGuildMemberJoin(GuildMemberJoinEvent e)
+	{
+		GuildIndex index = guilds.get(e.getGuild().getIdLong());
+		if (index == null)
+		{
+			return;
+		}
+		for (Role r : e.getMember().getRoles())
+		{
+			index.members(r.getIdLong()).add(e.getUser().getIdLong());
+			index.names.remove(r.getIdLong());
+		}
+	}
+
+	private void onGuildMemberLeave(GuildMemberLeaveEvent e)
+	{
+		GuildIndex index = guilds.get(e.getGuild().getIdLong());
+		if (index == null)
+		{
+			return;
+		}
+		// The member's roles may already be gone, so check every role
+		long id = e.getUser().getIdLong();
+		for (Map.Entry<Long, Set<Long>> entry : index.byRole.entrySet())
+		{
+			if (entry.getValue().remove(id))
+			{
+				index.names.remove(entry.getKey());
+			}
+		}
+	}
+
+	private void onGuildMemberNickChange(GuildMemberNickChangeEvent e)
+	{
+		GuildIndex index = guilds.get(e.getGuild().getIdLong());
+		if (index == null)
+		{
+			return;
+		}
+		for (Role r : e.getMember().getRoles())
+		{
+			index.names.remove(r.getIdLong());
+		}
+	}
+
+	private void onUserUpdateName(UserUpdateNameEvent e)
+	{
+		// Rare, and the user may be in any number of guilds
+		for (GuildIndex index : guilds.values())
+		{
+			index.names.clear();
+		}
+	}
+
+	private void onRoleDelete(RoleDeleteEvent e)
+	{
+		GuildIndex index = guilds.get(e.getGuild().getIdLong());
+		if (index != null)
+		{
+			index.byRole.remove(e.getRole().getIdLong());
+			index.names.remove(e.getRole().getIdLong());
+		}
+	}
+
+	private void onGuildLeave(GuildLeaveEvent e)
+	{
+		guilds.remove(e.getGuild().getIdLong());
+	}
+}
@@ -0,0 +1,399 @@
+package bot.modules.role;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import bot.BotEventManager;
+import bot.util.Config;
+import bot.util.Workers;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleRemoveEvent;
+
+/**
+ * Coalesces role changes for each (guild, member). Changes requested within
+ * a short window of each other (`roles.coalesce.windowMillis`, see Config)
+ * are merged, in the order they were requested, into one final role set,
+ * which is sent as a single request. While that request is in flight, new
+ * changes wait and are merged into the next one, so requests for a member
+ * never race each other.
+ *
+ * Each caller's future is completed with its own RoleChange: what its
+ * request changed, given the changes merged before it. Roles the bot may not
+ * manage are rejected locally and sent as JDA last saw them, and if nothing
+ * is left to change, no request is sent at all.
+ *
+ * Changes are planned from JDA's view of the member, so changes made by
+ * others in the meantime are kept. JDA only updates that view when Discord's
+ * event arrives, so changes applied here are overlaid on it until member role
+ * events confirm them (or for at most 30 seconds)
+ *
+ * @author Namdrib
+ *
+ */
+public class RoleMutator
+{
+	private static final long						window		= Config
+			.getLong("roles.coalesce.windowMillis", 100);
+	// How long to wait for JDA to confirm an applied change before trusting
+	// its view of the member again
+	private static final long						confirmTimeout	= TimeUnit.SECONDS
+			.toNanos(30);
+	private static final ScheduledExecutorService	timer		= Executors
+			.newSingleThreadScheduledExecutor(
+					Workers.daemonThreads("role-coalescer"));
+
+	/**
+	 * One caller's requested change
+	 */
+	private static class Request
+	{
+		final Collection<Role>					add;
+		final Collection<Role>					remove;
+		final CompletableFuture<RoleChange>		future	= new CompletableFuture<>();
+
+		Request(Collection<Role> add, Collection<Role> remove)
+		{
+			this.add = add;
+			this.remove = remove;
+		}
+	}
+
+	/**
+	 * Changes waiting for, or being sent to, one member
+	 */
+	private static class Pending
+	{
+		final Member			member;
+		final List<Request>		requests	= new ArrayList<>();
+		ScheduledFuture<?>		flush;
+		boolean					sending;
+
+		Pending(Member member)
+		{
+			this.member = member;
+		}
+	}
+
+	/**
+	 * Roles this mutator added to or removed from one member that JDA's
+	 * member role events haven't confirmed yet
+	 */
+	private static class Unconfirmed
+	{
+		final Set<Role>	added	= new HashSet<>();
+		final Set<Role>	removed	= new HashSet<>();
+		long			since	= System.nanoTime();
+	}
+
+	private final UsableRoles											usable;
+	private final BiFunction<Member, Set<Role>, CompletableFuture<?>>	sender;
+	private final Map<String, Pending>									pending	= new ConcurrentHashMap<>();
+	private final Map<String, Unconfirmed>								unconfirmed	= new ConcurrentHashMap<>();
+
+	// Metrics
+	private final AtomicLong											sent		= new AtomicLong();
+	private final AtomicLong											merged		= new AtomicLong();
+	private final AtomicLong											rejected	= new AtomicLong();
+	private final AtomicLong											avoided		= new AtomicLong();
+
+	/**
+	 * @param usable
+	 *            the roles the bot may manage in each guild
+	 * @param sender
+	 *            sends a request setting a member's complete role set
+	 */
+	public RoleMutator(UsableRoles usable,
+			BiFunction<Member, Set<Role>, CompletableFuture<?>> sender)
+	{
+		this.usable = usable;
+		this.sender = sender;
+	}
+
+	/**
+	 * Keep track of which applied changes JDA has seen
+	 *
+	 * @param events
+	 *            the bot's event manager
+	 */
+	public void subscribe(BotEventManager events)
+	{
+		events.subscribe(GuildMemberRoleAddEvent.class,
+				this::onGuildMemberRoleAdd);
+		events.subscribe(GuildMemberRoleRemoveEvent.class,
+				this::onGuildMemberRoleRemove);
+	}
+
+	/**
+	 * @return human-readable counts of requests sent, and of changes merged
+	 *         or rejected locally instead
+	 */
+	public String stats()
+	{
+		return "requests sent " + sent.get() + ", changes merged into others "
+				+ merged.get() + ", roles rejected locally " + rejected.get()
+				+ ", requests avoided " + avoided.get();
+	}
+
+	private static String key(Member member)
+	{
+		return member.getGuild().getIdLong() + ":"
+				+ member.getUser().getIdLong();
+	}
+
+	/**
+	 * Queue a change to a member's roles
+	 *
+	 * @param member
+	 *            the member to change
+	 * @param add
+	 *            roles to give the member
+	 * @param remove
+	 *            roles to take from the member
+	 * @return a future completed with this request's part of the change once
+	 *         Discord has applied it, or exceptionally if the request failed
+	 */
+	public CompletableFuture<RoleChange> submit(Member member,
+			Collection<Role> add, Collection<Role> remove)
+	{
+		Request request = new Request(add, remove);
+		String key = key(member);
+		while (true)
+		{
+			Pending p = pending.computeIfAbsent(key, k -> new Pending(member));
+			synchronized (p)
+			{
+				// Lost a race with a flush that has already finished with p
+				if (pending.get(key) != p)
+				{
+					continue;
+				}
+				p.requests.add(request);
+				if (p.flush == null && !p.sending)
+				{
+					p.flush = timer.schedule(() -> flush(key, p), window,
+							TimeUnit.MILLISECONDS);
+				}
+				return request.future;
+			}
+		}
+	}
+
+	/**
+	 * @return the roles member has, as far as this mutator knows: JDA's view,
+	 *         with any changes applied since that JDA hasn't caught up with
+	 */
+	private Set<Role> current(String key, Member member)
+	{
+		Set<Role> out = new LinkedHashSet<>(member.getRoles());
+		Unconfirmed u = unconfirmed.get(key);
+		if (u != null)
+		{
+			synchronized (u)
+			{
+				if (System.nanoTime() - u.since > confirmTimeout)
+				{
+					// The events never came; trust JDA from now on
+					unconfirmed.remove(key, u);
+				}
+				else
+				{
+					out.addAll(u.added);
+					out.removeAll(u.removed);
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Remember that member's roles were set to sent, until JDA's events show
+	 * the same
+	 */
+	private void record(String key, Member member, Set<Role> sent)
+	{
+		List<Role> live = member.getRoles();
+		Unconfirmed u = unconfirmed.computeIfAbsent(key, k -> new Unconfirmed());
+		synchronized (u)
+		{
+			u.since = System.nanoTime();
+			for (Role r : sent)
+			{
+				if (!live.contains(r))
+				{
+					u.added.add(r);
+					u.removed.remove(r);
+				}
+			}
+			for (Role r : live)
+			{
+				if (!sent.contains(r))
+				{
+					u.removed.add(r);
+					u.added.remove(r);
+				}
+			}
+		}
+	}
+
+	/**
+	 * JDA has seen roles added to or removed from a member, so they no longer
+	 * need to be overlaid on its view
+	 */
+	private void confirm(Member member, List<Role> roles)
+	{
+		String key = key(member);
+		Unconfirmed u = unconfirmed.get(key);
+		if (u == null)
+		{
+			return;
+		}
+		synchronized (u)
+		{
+			u.added.removeAll(roles);
+			u.removed.removeAll(roles);
+			if (u.added.isEmpty() && u.removed.isEmpty())
+			{
+				unconfirmed.remove(key, u);
+			}
+		}
+	}
+
+	private void onGuildMemberRoleAdd(GuildMemberRoleAddEvent e)
+	{
+		confirm(e.getMember(), e.getRoles());
+	}
+
+	private void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent e)
+	{
+		confirm(e.getMember(), e.getRoles());
+	}
+
+	/**
+	 * Merge and send everything queued for a member
+	 */
+	private void flush(String key, Pending p)
+	{
+		List<Request> batch;
+		synchronized (p)
+		{
+			p.flush = null;
+			if (p.requests.isEmpty())
+			{
+				pending.remove(key, p);
+				return;
+			}
+			batch = new ArrayList<>(p.requests);
+			p.requests.clear();
+			// Later requests wait for this batch, so it needn't hold the lock
+			p.sending = true;
+		}
+
+		List<RoleChange> changes = new ArrayList<>();
+		Set<Role> send = new LinkedHashSet<>();
+		CompletableFuture<?> request;
+		try
+		{
+			UsableRoles.Snapshot snapshot = usable.get(p.member.getGuild());
+			Collection<Role> current = current(key, p.member);
+			for (Request r : batch)
+			{
+				RoleChange change = RoleChange.plan(p.member, current, r.add,
+						r.remove, snapshot);
+				changes.add(change);
+				rejected.addAndGet(change.getSkipped().size());
+				current = change.getResult();
+			}
+
+			// Only ask to change roles the bot manages; the rest are sent
+			// exactly as JDA last saw them
+			for (Role r : p.member.getRoles())
+			{
+				if (snapshot.whyNot(r) != null)
+				{
+					send.add(r);
+				}
+			}
+			for (Role r : current)
+			{
+				if (snapshot.whyNot(r) == null)
+				{
+					send.add(r);
+				}
+			}
+
+			merged.addAndGet(batch.size() - 1);
+			if (changes.stream().allMatch(RoleChange::isEmpty))
+			{
+				avoided.incrementAndGet();
+				request = CompletableFuture.completedFuture(null);
+			}
+			else
+			{
+				sent.incrementAndGet();
+				request = sender.apply(p.member, send);
+			}
+		}
+		catch (RuntimeException ex)
+		{
+			// e.g. JDA refusing the request before sending it
+			CompletableFuture<Object> failed = new CompletableFuture<>();
+			failed.completeExceptionally(ex);
+			request = failed;
+		}
+
+		request.whenComplete((a, ex) -> {
+			try
+			{
+				if (ex == null && !changes.stream()
+						.allMatch(RoleChange::isEmpty))
+				{
+					record(key, p.member, send);
+				}
+				for (int i = 0; i < batch.size(); i++)
+				{
+					if (ex == null)
+					{
+						batch.get(i).future.complete(changes.get(i));
+					}
+					else
+					{
+						batch.get(i).future.completeExceptionally(ex);
+					}
+				}
+			}
+			finally
+			{
+				synchronized (p)
+				{
+					p.sending = false;
+					if (p.requests.isEmpty())
+					{
+						pending.remove(key, p);
+					}
+					else
+					{
+						// Merge whatever arrived meanwhile into the next
+						// request
+						p.flush = timer.schedule(() -> flush(key, p), 0,
+								TimeUnit.MILLISECONDS);
+					}
+				}
+			}
+		});
+	}
+}
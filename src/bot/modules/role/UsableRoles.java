@@ -0,0 +1,264 @@
+package bot.modules.role;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bot.BotEventManager;
+import bot.util.Helpers;
+import bot.util.Pager;
+import net.dv8tion.jda.core.Permission;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GenericGuildMemberEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.core.events.role.GenericRoleEvent;
+import net.dv8tion.jda.core.events.role.RoleCreateEvent;
+import net.dv8tion.jda.core.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.core.events.role.update.RoleUpdateNameEvent;
+import net.dv8tion.jda.core.events.role.update.RoleUpdatePermissionsEvent;
+import net.dv8tion.jda.core.events.role.update.RoleUpdatePositionEvent;
+
+/**
+ * The roles the bot may manage in each guild, i.e. those below its highest
+ * role (excluding the public role). Place the bot higher in the hierarchy to
+ * allow more access, lower to restrict access.
+ *
+ * Each guild's usable roles are worked out once and kept as a Snapshot, along
+ * with their sorted names, the first page of the `listAll` reply and whether
+ * the bot has MANAGE_ROLES. A guild's snapshot is dropped (and rebuilt when
+ * next needed) when its roles are created, deleted, renamed, moved or have
+ * their permissions changed, or when the bot's own roles change
+ *
+ * @author Namdrib
+ *
+ */
+public class UsableRoles
+{
+	/**
+	 * A guild's usable roles at one point in time
+	 */
+	public static final class Snapshot
+	{
+		private final List<Role>	roles;
+		private final int			botPosition;
+		private final boolean		manageRoles;
+		private final List<String>	names;
+		private final String		listAll;
+
+		private Snapshot(Guild guild, String listAllCommand)
+		{
+			// The highest position of all the roles the bot has
+			int highest = -1;
+			for (Role r : guild.getSelfMember().getRoles())
+			{
+				highest = Math.max(highest, r.getPosition());
+			}
+			botPosition = highest;
+			manageRoles = guild.getSelfMember()
+					.hasPermission(Permission.MANAGE_ROLES);
+
+			// getRoles() is already sorted, highest first
+			List<Role> usable = new ArrayList<>();
+			for (Role r : guild.getRoles())
+			{
+				if (r.getPosition() < botPosition && !r.isPublicRole())
+				{
+					usable.add(r);
+				}
+			}
+			roles = Collections.unmodifiableList(usable);
+
+			names = Collections
+					.unmodifiableList(Helpers.getNamesFrom(roles));
+			listAll = Pager.render(listAllTitle(names), names, 1,
+					listAllCommand);
+		}
+
+		/**
+		 * @return the usable roles, highest first (unmodifiable)
+		 */
+		public List<Role> getRoles()
+		{
+			return roles;
+		}
+
+		/**
+		 * @return the position of the bot's highest role. Only roles below
+		 *         this can be managed
+		 */
+		public int getBotPosition()
+		{
+			return botPosition;
+		}
+
+		/**
+		 * @return true iff the bot has the Manage Roles permission, which it
+		 *         needs to create roles or change anyone's roles
+		 */
+		public boolean canManageRoles()
+		{
+			return manageRoles;
+		}
+
+		/**
+		 * Check, without asking Discord, whether the bot may give a role to
+		 * or take it from a member
+		 * 
+		 * @param r
+		 *            a role in this snapshot's guild
+		 * @return why the bot may not manage r, or null if it may
+		 */
+		public String whyNot(Role r)
+		{
+			if (!manageRoles)
+			{
+				return "the bot lacks the Manage Roles permission";
+			}
+			if (r.isPublicRole())
+			{
+				return "everyone has it";
+			}
+			if (r.isManaged())
+			{
+				return "it is managed by an integration";
+			}
+			if (r.getPosition() >= botPosition)
+			{
+				return "it is not below the bot's highest role";
+			}
+			return null;
+		}
+
+		/**
+		 * @return the names of the usable roles, sorted alphabetically
+		 *         (unmodifiable)
+		 */
+		public List<String> getNames()
+		{
+			return names;
+		}
+
+		/**
+		 * @return the reply to `listAll` (its first page)
+		 */
+		public String getListAll()
+		{
+			return listAll;
+		}
+	}
+
+	/**
+	 * @param names
+	 *            the names of a guild's usable roles
+	 * @return title of the `listAll` reply
+	 */
+	public static String listAllTitle(List<String> names)
+	{
+		return names.size() + " available roles";
+	}
+
+	private final Map<Long, Snapshot>	snapshots		= new ConcurrentHashMap<>();
+	private final String				listAllCommand;
+
+	/**
+	 * @param listAllCommand
+	 *            the full `listAll` invocation, for the reply's next page hint
+	 */
+	public UsableRoles(String listAllCommand)
+	{
+		this.listAllCommand = listAllCommand;
+	}
+
+	/**
+	 * @param guild
+	 *            a guild
+	 * @return the guild's current usable roles
+	 */
+	public Snapshot get(Guild guild)
+	{
+		return snapshots.computeIfAbsent(guild.getIdLong(),
+				k -> new Snapshot(guild, listAllCommand));
+	}
+
+	private void invalidate(GenericRoleEvent e)
+	{
+		snapshots.remove(e.getGuild().getIdLong());
+	}
+
+	private void invalidateIfSelf(GenericGuildMemberEvent e)
+	{
+		Member self = e.getGuild().getSelfMember();
+		if (self.getUser().getIdLong() == e.getUser().getIdLong())
+		{
+			snapshots.remove(e.getGuild().getIdLong());
+		}
+	}
+
+	/**
+	 * Drop snapshots when events from events make them stale
+	 *
+	 * @param events
+	 *            the bot's event manager
+	 */
+	public void subscribe(BotEventManager events)
+	{
+		events.subscribe(RoleCreateEvent.class, this::onRoleCreate);
+		events.subscribe(RoleDeleteEvent.class, this::onRoleDelete);
+		events.subscribe(RoleUpdateNameEvent.class, this::onRoleUpdateName);
+		events.subscribe(RoleUpdatePositionEvent.class,
+				this::onRoleUpdatePosition);
+		events.subscribe(RoleUpdatePermissionsEvent.class,
+				this::onRoleUpdatePermissions);
+		events.subscribe(GuildMemberRoleAddEvent.class,
+				this::onGuildMemberRoleAdd);
+		events.subscribe(GuildMemberRoleRemoveEvent.class,
+				this::onGuildMemberRoleRemove);
+		events.subscribe(GuildLeaveEvent.class, this::onGuildLeave);
+	}
+
+	private void onRoleCreate(RoleCreateEvent e)
+	{
+		invalidate(e);
+	}
+
+	private void onRoleDelete(RoleDeleteEvent e)
+	{
+		invalidate(e);
+	}
+
+	private void onRoleUpdateName(RoleUpdateNameEvent e)
+	{
+		invalidate(e);
+	}
+
+	private void onRoleUpdatePosition(RoleUpdatePositionEvent e)
+	{
+		invalidate(e);
+	}
+
+	private void onRoleUpdatePermissions(RoleUpdatePermissionsEvent e)
+	{
+		invalidate(e);
+	}
+
+	private void onGuildMemberRoleAdd(GuildMemberRoleAddEvent e)
+	{
+		invalidateIfSelf(e);
+	}
+
+	private void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent e)
+	{
+		invalidateIfSelf(e);
+	}
+
+	private void onGuildLeave(GuildLeaveEvent e)
+	{
+		snapshots.remove(e.getGuild().getIdLong());
+	}
+}
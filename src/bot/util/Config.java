@@ -0,0 +1,140 @@
+package bot.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Read-only access to optional tuning settings. A setting is looked up in
+ * `config.properties` (in project root) first, then in an environment
+ * variable named after the key in upper case with dots replaced by
+ * underscores (e.g. `workers.threads` becomes `WORKERS_THREADS`). If neither
+ * exists, the supplied default is used
+ *
+ * @author Namdrib
+ *
+ */
+public class Config
+{
+	private static final String		filename	= "config.properties";
+	private static final Properties	properties	= load();
+
+	private static Properties load()
+	{
+		Properties prop = new Properties();
+		try (InputStream input = new FileInputStream(filename))
+		{
+			prop.load(input);
+		}
+		catch (IOException ex)
+		{
+			// No file, only environment variables and defaults apply
+		}
+		return prop;
+	}
+
+	/**
+	 * Get the raw value of a setting
+	 *
+	 * @param key
+	 *            the name of the setting, e.g. `workers.threads`
+	 * @param def
+	 *            value to use if the setting is not present
+	 * @return the configured value, or def if there is none
+	 */
+	public static String get(String key, String def)
+	{
+		String value = properties.getProperty(key);
+		if (value == null)
+		{
+			value = System.getenv(key.toUpperCase().replace('.', '_'));
+		}
+		return value == null ? def : value.trim();
+	}
+
+	/**
+	 * Get a setting as an int. Malformed values are reported and ignored
+	 *
+	 * @param key
+	 *            the name of the setting
+	 * @param def
+	 *            value to use if the setting is absent or malformed
+	 * @return the configured value, or def
+	 */
+	public static int getInt(String key, int def)
+	{
+		return (int) getLong(key, def);
+	}
+
+	/**
+	 * Get a setting as a long. Malformed values are reported and ignored
+	 *
+	 * @param key
+	 *            the name of the setting
+	 * @param def
+	 *            value to use if the setting is absent or malformed
+	 * @return the configured value, or def
+	 */
+	public static long getLong(String key, long def)
+	{
+		String value = get(key, null);
+		if (value == null)
+		{
+			return def;
+		}
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException ex)
+		{
+			System.out.println("Ignoring malformed setting " + key + "="
+					+ value + ", using " + def);
+			return def;
+		}
+	}
+
+	/**
+	 * Get a setting as a double. Malformed values are reported and ignored
+	 *
+	 * @param key
+	 *            the name of the setting
+	 * @param def
+	 *            value to use if the setting is absent or malformed
+	 * @return the configured value, or def
+	 */
+	public static double getDouble(String key, double def)
+	{
+		String value = get(key, null);
+		if (value == null)
+		{
+			return def;
+		}
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch (NumberFormatException ex)
+		{
+			System.out.println("Ignoring malformed setting " + key + "="
+					+ value + ", using " + def);
+			return def;
+		}
+	}
+
+	/**
+	 * Get a setting as a boolean ("true", case-insensitive, is true)
+	 *
+	 * @param key
+	 *            the name of the setting
+	 * @param def
+	 *            value to use if the setting is absent
+	 * @return the configured value, or def
+	 */
+	public static boolean getBoolean(String key, boolean def)
+	{
+		String value = get(key, null);
+		return value == null ? def : Boolean.parseBoolean(value);
+	}
+}
@@ -1,9 +1,18 @@
 package bot.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import bot.util.RestScheduler.Priority;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.MessageChannel;
@@ -19,30 +28,251 @@ import net.dv8tion.jda.core.entities.User;
  */
 public class Helpers
 {
+	// Responses longer than this are sent as a text file rather than messages
+	private static final int	attachAbove	= Config
+			.getInt("responses.attachAbove", 3 * Outbox.maxLength);
+
+	// The bot's effective name in each guild, by guild ID
+	private static final Map<Long, String>	botNames	= new ConcurrentHashMap<>();
 
 	/**
-	 * Shortcut for queueing sending a message
+	 * Shortcut for queueing sending a message. Messages sent to the same
+	 * channel in quick succession are combined (see Outbox)
 	 * 
 	 * @param msg
 	 *            message to send
 	 */
 	public static void send(MessageChannel channel, String msg)
+	{
+		send(channel, msg, Priority.NORMAL);
+	}
+
+	/**
+	 * Queue sending a message with the given priority. LOW priority messages
+	 * may be merged into others when the channel is busy (see RestScheduler)
+	 * 
+	 * @param channel
+	 *            channel to send to
+	 * @param msg
+	 *            message to send
+	 * @param priority
+	 *            how important the message is
+	 */
+	public static void send(MessageChannel channel, String msg,
+			Priority priority)
 	{
 		if (channel != null)
 		{
-			channel.sendMessage(msg).queue();
+			Outbox.add(channel, msg, priority);
 		}
 	}
 
 	/**
-	 * Return the bot's effective name in the current guild
+	 * Send anything still waiting to go to a channel immediately, e.g. once a
+	 * command has finished
+	 * 
+	 * @param channel
+	 *            the channel to flush
+	 */
+	public static void flush(MessageChannel channel)
+	{
+		if (channel != null)
+		{
+			Outbox.flush(channel);
+		}
+	}
+
+	/**
+	 * Start a response that may be too long for one message. See ResponseSink
+	 * 
+	 * @param channel
+	 *            channel to send to
+	 * @param title
+	 *            first line of the response, or null for none
+	 * @param filename
+	 *            name of the attachment, if the response becomes one
+	 * @param codeBlock
+	 *            true to show the lines in a code block when they are sent as
+	 *            messages
+	 * @return an empty response. Add lines, then send() it
+	 */
+	public static ResponseSink sink(MessageChannel channel, String title,
+			String filename, boolean codeBlock)
+	{
+		return new ResponseSink(channel, title, filename, codeBlock);
+	}
+
+	/**
+	 * A response built up a line at a time, and sent in whichever form suits
+	 * its final size: one message if it fits, several messages split between
+	 * lines if it fits in a few (`responses.attachAbove` characters, see
+	 * Config), or otherwise a text file attachment. Once a response passes
+	 * that size, further lines are written straight into the file
+	 */
+	public static final class ResponseSink
+	{
+		private final MessageChannel	channel;
+		private final String			title;
+		private final String			filename;
+		private final boolean			codeBlock;
+		private final StringBuilder		buffer	= new StringBuilder();
+		private ByteArrayOutputStream	file;
+		private Writer					writer;
+
+		private ResponseSink(MessageChannel channel, String title,
+				String filename, boolean codeBlock)
+		{
+			this.channel = channel;
+			this.title = title;
+			this.filename = filename;
+			this.codeBlock = codeBlock;
+		}
+
+		/**
+		 * Add a line to the response
+		 * 
+		 * @param line
+		 *            the line, without a trailing newline
+		 * @return this
+		 */
+		public ResponseSink line(CharSequence line)
+		{
+			try
+			{
+				if (writer != null)
+				{
+					writer.append(line).append('\n');
+					return this;
+				}
+				buffer.append(line).append('\n');
+				if (buffer.length() > attachAbove)
+				{
+					file = new ByteArrayOutputStream(buffer.length() * 2);
+					writer = new OutputStreamWriter(file,
+							StandardCharsets.UTF_8);
+					writer.append(buffer);
+					buffer.setLength(0);
+				}
+			}
+			catch (IOException ex)
+			{
+				// Writing to memory, so not expected
+				throw new UncheckedIOException(ex);
+			}
+			return this;
+		}
+
+		/**
+		 * Send the response. Nothing more may be added afterwards. A response
+		 * with no lines and no title sends nothing
+		 */
+		public void send()
+		{
+			if (writer != null)
+			{
+				try
+				{
+					writer.flush();
+				}
+				catch (IOException ex)
+				{
+					throw new UncheckedIOException(ex);
+				}
+				// Keep order with anything already queued for the channel
+				flush(channel);
+				RestScheduler.submit(RestScheduler.messageRoute(channel),
+						Priority.NORMAL,
+						channel.sendMessage(title == null ? filename : title)
+								.addFile(file.toByteArray(), filename));
+				return;
+			}
+
+			if (buffer.length() == 0)
+			{
+				// Nothing to send without a title either
+				if (title != null)
+				{
+					Helpers.send(channel, title);
+				}
+				return;
+			}
+
+			// Split between lines into messages that each fit
+			String open = codeBlock ? "```\n" : "";
+			String close = codeBlock ? "```" : "";
+			StringBuilder msg = new StringBuilder();
+			if (title != null)
+			{
+				// A title that leaves little room for lines goes on its own
+				if (title.length() > Outbox.maxLength / 2)
+				{
+					Helpers.send(channel, title);
+				}
+				else
+				{
+					msg.append(title).append('\n');
+				}
+			}
+			msg.append(open);
+			int header = msg.length();
+			int start = 0;
+			while (start < buffer.length())
+			{
+				int end = buffer.indexOf("\n", start) + 1;
+				int room = Outbox.maxLength - close.length() - msg.length();
+				if (end - start > room && msg.length() > header)
+				{
+					Helpers.send(channel, msg.append(close).toString());
+					msg.setLength(0);
+					msg.append(open);
+					header = msg.length();
+					continue;
+				}
+				// A single line too long for a message is cut, taking at least
+				// one character each time round
+				end = Math.min(end, start + Math.max(room, 1));
+				msg.append(buffer, start, end);
+				start = end;
+			}
+			Helpers.send(channel, msg.append(close).toString());
+		}
+	}
+
+	/**
+	 * Return the bot's effective name in the current guild. Names are cached
+	 * per guild until forgotten (when the bot's nickname or username changes)
 	 * 
 	 * @return the bot's effective name in the current guild
 	 */
 	public static String getBotName(Guild guild)
 	{
-		Member bot = guild.getSelfMember();
-		return bot.getEffectiveName();
+		String name = botNames.get(guild.getIdLong());
+		if (name == null)
+		{
+			Member bot = guild.getSelfMember();
+			name = bot.getEffectiveName();
+			botNames.put(guild.getIdLong(), name);
+		}
+		return name;
+	}
+
+	/**
+	 * Forget the bot's cached name in a guild, so it is looked up again
+	 * 
+	 * @param guild
+	 *            the guild whose name changed
+	 */
+	public static void forgetBotName(Guild guild)
+	{
+		botNames.remove(guild.getIdLong());
+	}
+
+	/**
+	 * Forget the bot's cached names in every guild
+	 */
+	public static void forgetBotNames()
+	{
+		botNames.clear();
 	}
 
 	/**
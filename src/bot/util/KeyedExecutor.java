@@ -0,0 +1,154 @@
+package bot.util;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a shared pool, one at a time per key, in the order they were
+ * submitted. Tasks with different keys (e.g. different guilds) run in
+ * parallel, so a slow task only holds up later tasks with the same key.
+ *
+ * Each key may have at most maxQueued tasks waiting; any more are rejected
+ * so one busy key can't take over the pool's queue. After each task, a key
+ * goes to the back of the pool's queue, so a key with many tasks shares the
+ * pool fairly with the rest
+ *
+ * @author Namdrib
+ *
+ */
+public class KeyedExecutor
+{
+	/**
+	 * Tasks waiting for one key
+	 */
+	private static class Lane
+	{
+		final Queue<Runnable>	tasks	= new ArrayDeque<>();
+		boolean					running;
+	}
+
+	private final Executor			pool;
+	private final int				maxQueued;
+	private final Map<Object, Lane>	lanes		= new ConcurrentHashMap<>();
+
+	// Metrics
+	private final AtomicLong		completed	= new AtomicLong();
+	private final AtomicLong		rejected	= new AtomicLong();
+
+	/**
+	 * @param pool
+	 *            the shared pool to run tasks on
+	 * @param maxQueued
+	 *            the most tasks that may be waiting for one key
+	 */
+	public KeyedExecutor(Executor pool, int maxQueued)
+	{
+		this.pool = pool;
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * Queue a task to run after every task already submitted with the same
+	 * key
+	 *
+	 * @param key
+	 *            the key to order by, e.g. a guild ID
+	 * @param task
+	 *            the task
+	 * @return true iff the task was queued, false if too many tasks are
+	 *         already waiting for key
+	 */
+	public boolean submit(Object key, Runnable task)
+	{
+		while (true)
+		{
+			Lane lane = lanes.computeIfAbsent(key, k -> new Lane());
+			synchronized (lane)
+			{
+				// Lost a race with the lane finishing its last task
+				if (lanes.get(key) != lane)
+				{
+					continue;
+				}
+				if (lane.tasks.size() >= maxQueued)
+				{
+					rejected.incrementAndGet();
+					return false;
+				}
+				lane.tasks.add(task);
+				if (!lane.running)
+				{
+					lane.running = true;
+					schedule(key, lane);
+				}
+				return true;
+			}
+		}
+	}
+
+	private void schedule(Object key, Lane lane)
+	{
+		try
+		{
+			pool.execute(() -> runNext(key, lane));
+		}
+		catch (RejectedExecutionException ex)
+		{
+			// Pool shut down; drop what's waiting
+			lane.tasks.clear();
+			lane.running = false;
+			lanes.remove(key, lane);
+		}
+	}
+
+	/**
+	 * Run one of lane's tasks, then requeue the lane if it has more
+	 */
+	private void runNext(Object key, Lane lane)
+	{
+		Runnable task;
+		synchronized (lane)
+		{
+			task = lane.tasks.poll();
+		}
+		try
+		{
+			task.run();
+		}
+		catch (RuntimeException ex)
+		{
+			ex.printStackTrace();
+		}
+		finally
+		{
+			completed.incrementAndGet();
+			synchronized (lane)
+			{
+				if (lane.tasks.isEmpty())
+				{
+					lane.running = false;
+					lanes.remove(key, lane);
+				}
+				else
+				{
+					schedule(key, lane);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return human-readable counts of busy keys, completed and rejected
+	 *         tasks
+	 */
+	public String stats()
+	{
+		return "busy " + lanes.size() + ", completed " + completed.get()
+				+ ", rejected " + rejected.get();
+	}
+}
@@ -0,0 +1,302 @@
+package bot.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import bot.util.RestScheduler.Priority;
+import net.dv8tion.jda.core.entities.MessageChannel;
+
+/**
+ * Per-channel outgoing message buffer. Messages sent to a channel within a
+ * short window of each other (`outbox.windowMillis`, see Config) are joined
+ * into as few Discord messages as the 2000 character limit allows, keeping
+ * their order. A channel's buffer is sent when its window ends, or straight
+ * away by flush(), which is called when a command completes. Combined
+ * messages are handed to the RestScheduler with the highest priority of their
+ * parts
+ *
+ * @author Namdrib
+ *
+ */
+public class Outbox
+{
+	/**
+	 * Discord's maximum message length
+	 */
+	public static final int							maxLength	= 2000;
+
+	private static final String						fence		= "```";
+
+	private static final long						window		= Config
+			.getLong("outbox.windowMillis", 250);
+	private static final ScheduledExecutorService	timer		= Executors
+			.newSingleThreadScheduledExecutor(Workers.daemonThreads("outbox"));
+	private static final Map<Long, Pending>			pending		= new ConcurrentHashMap<>();
+
+	/**
+	 * Messages waiting to be sent to one channel
+	 */
+	private static class Pending
+	{
+		final MessageChannel	channel;
+		final List<String>		parts		= new ArrayList<>();
+		Priority				priority	= Priority.LOW;
+		ScheduledFuture<?>		flush;
+
+		Pending(MessageChannel channel)
+		{
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Queue a message for a channel
+	 *
+	 * @param channel
+	 *            the channel to send to
+	 * @param msg
+	 *            the message. May be longer than maxLength, in which case it is
+	 *            split over several messages
+	 * @param priority
+	 *            how important the message is
+	 */
+	public static void add(MessageChannel channel, String msg,
+			Priority priority)
+	{
+		if (msg == null || msg.isEmpty())
+		{
+			return;
+		}
+		while (true)
+		{
+			Pending p = pending.computeIfAbsent(channel.getIdLong(),
+					k -> new Pending(channel));
+			synchronized (p)
+			{
+				// Lost a race with a flush that has already taken p
+				if (pending.get(channel.getIdLong()) != p)
+				{
+					continue;
+				}
+				p.parts.add(msg);
+				if (priority.compareTo(p.priority) < 0)
+				{
+					p.priority = priority;
+				}
+				if (p.flush == null)
+				{
+					p.flush = timer.schedule(() -> flush(channel), window,
+							TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Send everything queued for a channel now
+	 *
+	 * @param channel
+	 *            the channel to flush
+	 */
+	public static void flush(MessageChannel channel)
+	{
+		Pending p = pending.get(channel.getIdLong());
+		if (p == null)
+		{
+			return;
+		}
+		synchronized (p)
+		{
+			if (pending.get(channel.getIdLong()) != p)
+			{
+				return;
+			}
+			if (p.flush != null)
+			{
+				p.flush.cancel(false);
+			}
+			// p stays in the map until its messages are queued, so add() for
+			// this channel waits on p's lock meanwhile. The next Pending (and
+			// its flush) can't exist until these are queued, and the
+			// RestScheduler sends messages of equal priority in the order
+			// they were queued
+			try
+			{
+				for (String msg : pack(p.parts, maxLength))
+				{
+					RestScheduler.sendMessage(p.channel, msg, p.priority);
+				}
+			}
+			finally
+			{
+				pending.remove(channel.getIdLong(), p);
+			}
+		}
+	}
+
+	/**
+	 * Join parts with newlines into as few strings of at most limit characters
+	 * as possible, keeping their order. Parts longer than limit are split
+	 * between lines, and a code block (```) cut in two is closed at the end of
+	 * one string and reopened at the start of the next
+	 *
+	 * @param parts
+	 *            the messages to join
+	 * @param limit
+	 *            the maximum length of each result
+	 * @return the joined messages
+	 */
+	public static List<String> pack(List<String> parts, int limit)
+	{
+		List<String> out = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+		for (String part : parts)
+		{
+			for (String piece : split(part, limit))
+			{
+				if (current.length() > 0
+						&& current.length() + 1 + piece.length() > limit)
+				{
+					out.add(current.toString());
+					current.setLength(0);
+				}
+				if (current.length() > 0)
+				{
+					current.append('\n');
+				}
+				current.append(piece);
+			}
+		}
+		if (current.length() > 0)
+		{
+			out.add(current.toString());
+		}
+		return out;
+	}
+
+	/**
+	 * Split s into pieces of at most limit characters between lines. A code
+	 * block open at a cut is closed before it and reopened (with its language,
+	 * if any) after it. A single line too long for a piece is cut where it
+	 * must be
+	 */
+	private static List<String> split(String s, int limit)
+	{
+		List<String> out = new ArrayList<>();
+		if (s.length() <= limit)
+		{
+			out.add(s);
+			return out;
+		}
+
+		StringBuilder piece = new StringBuilder();
+		// The line to reopen the code block we're in with, or null if we're
+		// not in one
+		String reopen = null;
+		for (String line : s.split("\n", -1))
+		{
+			String after = reopen;
+			if (countFences(line) % 2 == 1)
+			{
+				after = reopen == null ? opener(line, limit) : null;
+			}
+
+			int start = 0;
+			while (true)
+			{
+				// Keep room to close the block after this line
+				int close = reopen == null && after == null ? 0
+						: 1 + fence.length();
+				int room = limit - close - piece.length()
+						- (piece.length() > 0 ? 1 : 0);
+				if (line.length() - start <= room)
+				{
+					break;
+				}
+				if (piece.length() > (reopen == null ? 0 : reopen.length()))
+				{
+					// Try again at the start of the next piece
+					endPiece(out, piece, reopen);
+					continue;
+				}
+				// Too long to fit even on its own: cut it where it must be
+				int end = start + Math.max(room, 1);
+				appendLine(piece, line, start, end);
+				start = end;
+				endPiece(out, piece, reopen);
+			}
+			appendLine(piece, line, start, line.length());
+			reopen = after;
+		}
+		out.add(piece.toString());
+		return out;
+	}
+
+	/**
+	 * Append line[start, end) to piece as a new line
+	 */
+	private static void appendLine(StringBuilder piece, String line,
+			int start, int end)
+	{
+		if (piece.length() > 0)
+		{
+			piece.append('\n');
+		}
+		piece.append(line, start, end);
+	}
+
+	/**
+	 * Finish piece, closing its code block if it's in one, and start the next
+	 * one, reopening the block
+	 */
+	private static void endPiece(List<String> out, StringBuilder piece,
+			String reopen)
+	{
+		if (reopen != null)
+		{
+			piece.append('\n').append(fence);
+		}
+		out.add(piece.toString());
+		piece.setLength(0);
+		if (reopen != null)
+		{
+			piece.append(reopen);
+		}
+	}
+
+	/**
+	 * @return how many times ``` appears in line
+	 */
+	private static int countFences(String line)
+	{
+		int count = 0;
+		for (int at = line.indexOf(fence); at >= 0; at = line.indexOf(fence,
+				at + fence.length()))
+		{
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return what to reopen the code block that line opens with: the fence
+	 *         and its language, if line is just that, otherwise a bare fence
+	 */
+	private static String opener(String line, int limit)
+	{
+		String trimmed = line.trim();
+		if (trimmed.startsWith(fence) && trimmed.length() < limit / 4
+				&& trimmed.indexOf(' ') < 0)
+		{
+			return trimmed;
+		}
+		return fence;
+	}
+}
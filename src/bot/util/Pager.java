@@ -0,0 +1,146 @@
+package bot.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders one page of a long, already sorted list of names, so replies stay
+ * within Discord's message limit and only the requested slice is ever turned
+ * into text. Pages are numbered from 1 and hold up to `pages.size` items (see
+ * Config), fewer if the items are long enough that the page would not fit in
+ * one message
+ *
+ * @author Namdrib
+ *
+ */
+public class Pager
+{
+	/**
+	 * Most items per page
+	 */
+	public static final int		pageSize	= Math.max(1,
+			Config.getInt("pages.size", 50));
+
+	// Most a page's text adds besides its title, items and next page command
+	private static final int	overhead	= 64;
+
+	/**
+	 * Read a page argument
+	 *
+	 * @param arg
+	 *            the argument, or null if none was given
+	 * @return the page number (1 if arg is null), or -1 if arg is not a
+	 *         positive number
+	 */
+	public static int parsePage(String arg)
+	{
+		if (arg == null)
+		{
+			return 1;
+		}
+		try
+		{
+			int page = Integer.parseInt(arg);
+			return page >= 1 ? page : -1;
+		}
+		catch (NumberFormatException ex)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Work out where each page starts. A page ends after pageSize items, or
+	 * sooner if its items (joined with ", ") would make the page too long for
+	 * one message. A page always has at least one item
+	 *
+	 * @param items
+	 *            all of the items
+	 * @param room
+	 *            how many characters the items of a page may take up
+	 * @return the index of the first item of each page, then items.size()
+	 */
+	private static List<Integer> pageStarts(List<String> items, int room)
+	{
+		List<Integer> starts = new ArrayList<>();
+		starts.add(0);
+		int count = 0;
+		int length = 0;
+		for (int i = 0; i < items.size(); i++)
+		{
+			int added = (count > 0 ? 2 : 0) + items.get(i).length();
+			if (count == pageSize || (count > 0 && length + added > room))
+			{
+				starts.add(i);
+				count = 0;
+				length = 0;
+				added = items.get(i).length();
+			}
+			count++;
+			length += added;
+		}
+		if (items.size() > 0)
+		{
+			starts.add(items.size());
+		}
+		else
+		{
+			// One empty page
+			starts.add(0);
+		}
+		return starts;
+	}
+
+	/**
+	 * Render one page of items
+	 *
+	 * @param title
+	 *            what the items are, e.g. "12 members with role x"
+	 * @param items
+	 *            all of the items, already sorted
+	 * @param page
+	 *            the page to render, from 1
+	 * @param more
+	 *            the command that shows another page when followed by a page
+	 *            number, e.g. "@N3amBot role membersWith x"
+	 * @return the page, with its title, position and how to see the next page
+	 */
+	public static String render(String title, List<String> items, int page,
+			String more)
+	{
+		// Leave room for the title, the page numbers and the next page hint
+		int room = Outbox.maxLength - title.length() - more.length()
+				- overhead;
+		List<Integer> starts = pageStarts(items, room);
+		int pages = starts.size() - 1;
+		if (page > pages)
+		{
+			return title + " has only " + pages
+					+ (pages == 1 ? " page" : " pages");
+		}
+
+		int from = starts.get(page - 1);
+		int to = starts.get(page);
+		StringBuilder out = new StringBuilder(title);
+		if (pages > 1)
+		{
+			out.append(" (page ").append(page).append(" of ").append(pages)
+					.append(')');
+		}
+		out.append(":\n");
+		for (int i = from; i < to; i++)
+		{
+			if (i > from)
+			{
+				out.append(", ");
+			}
+			out.append(items.get(i));
+		}
+		if (page < pages)
+		{
+			out.append("\nNext page: `").append(more).append(' ')
+					.append(page + 1).append('`');
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,410 @@
+package bot.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+import net.dv8tion.jda.core.requests.RestAction;
+
+/**
+ * Sits in front of JDA's request queue, deciding which RestActions to hand to
+ * JDA and when. Each route (messages to or reactions in one channel, role
+ * changes in one guild) has its own token bucket, so the bot stays within
+ * Discord's rate limits rather than piling requests up inside JDA. Within a
+ * route, waiting requests go out highest priority first, then oldest first.
+ *
+ * When a route runs out of tokens, its waiting LOW priority messages (echoes,
+ * help text) are folded together and sent in front of the next message to
+ * that channel, or on their own once a token is free. If they would no longer
+ * fit in one message, their oldest lines are dropped, and a single message
+ * too long to fit is cut short. Other requests are never dropped. Settings
+ * (see Config):
+ * <ul>
+ * <li>`rest.messages.burst`, `rest.messages.perSecond`: per-channel message
+ * bucket</li>
+ * <li>`rest.roles.burst`, `rest.roles.perSecond`: per-guild role change
+ * bucket</li>
+ * </ul>
+ *
+ * @author Namdrib
+ *
+ */
+public class RestScheduler
+{
+	public enum Priority
+	{
+		HIGH, NORMAL, LOW
+	}
+
+	/**
+	 * A request waiting to be sent. Either a message (channel and text, so it
+	 * can still be merged) or any other RestAction
+	 */
+	private static class Job<T>
+	{
+		final String				route;
+		final Priority				priority;
+		final long					seq;
+		final long					enqueuedAt	= System.nanoTime();
+		final RestAction<T>			action;
+		final MessageChannel		channel;
+		final String				text;
+		final CompletableFuture<T>	future		= new CompletableFuture<>();
+
+		Job(String route, Priority priority, RestAction<T> action,
+				MessageChannel channel, String text)
+		{
+			this.route = route;
+			this.priority = priority;
+			this.action = action;
+			this.channel = channel;
+			this.text = text;
+			seq = sequence.incrementAndGet();
+		}
+
+		boolean isMessage()
+		{
+			return text != null;
+		}
+	}
+
+	private static final Comparator<Job<?>>				order		= Comparator
+			.<Job<?>, Priority> comparing(j -> j.priority)
+			.thenComparingLong(j -> j.seq);
+
+	/**
+	 * State of one route. Only touched by the dispatcher thread
+	 */
+	private static class Route
+	{
+		final TokenBucket			bucket;
+		final PriorityQueue<Job<?>>	waiting		= new PriorityQueue<>(order);
+		MessageChannel				deferredChannel;
+		final StringBuilder			deferred	= new StringBuilder();
+
+		Route(TokenBucket bucket)
+		{
+			this.bucket = bucket;
+		}
+
+		boolean hasWork()
+		{
+			return !waiting.isEmpty() || deferred.length() > 0;
+		}
+	}
+
+	private static final int							messageBurst	= Config
+			.getInt("rest.messages.burst", 5);
+	private static final double							messageRate		= Config
+			.getDouble("rest.messages.perSecond", 1);
+	private static final int							roleBurst		= Config
+			.getInt("rest.roles.burst", 10);
+	private static final double							roleRate		= Config
+			.getDouble("rest.roles.perSecond", 1);
+
+	private static final AtomicLong						sequence		= new AtomicLong();
+	private static final PriorityBlockingQueue<Job<?>>	incoming		= new PriorityBlockingQueue<>(
+			64, order);
+
+	// Dispatcher thread only
+	private static final Map<String, Route>				routes			= new HashMap<>();
+	private static final Set<Route>						busy			= new LinkedHashSet<>();
+
+	// Metrics
+	private static final AtomicInteger					queued			= new AtomicInteger();
+	private static final AtomicLong						dispatched		= new AtomicLong();
+	private static final AtomicLong						totalWait		= new AtomicLong();
+	private static final AtomicLong						maxWait			= new AtomicLong();
+	private static final AtomicLong						merged			= new AtomicLong();
+	private static final AtomicLong						dropped			= new AtomicLong();
+	private static final AtomicLong						failed			= new AtomicLong();
+
+	static
+	{
+		Thread dispatcher = Workers.daemonThreads("rest-scheduler")
+				.newThread(RestScheduler::dispatchLoop);
+		dispatcher.start();
+	}
+
+	/**
+	 * @param channel
+	 *            a channel
+	 * @return the route for messages sent to channel
+	 */
+	public static String messageRoute(MessageChannel channel)
+	{
+		return "messages:" + channel.getIdLong();
+	}
+
+	/**
+	 * @param channel
+	 *            a channel
+	 * @return the route for reactions to messages in channel. It has the
+	 *         same limits as messageRoute(channel), but its own tokens
+	 */
+	public static String reactionRoute(MessageChannel channel)
+	{
+		return "reactions:" + channel.getIdLong();
+	}
+
+	/**
+	 * @param guild
+	 *            a guild
+	 * @return the route for role changes in guild
+	 */
+	public static String roleRoute(Guild guild)
+	{
+		return "roles:" + guild.getIdLong();
+	}
+
+	/**
+	 * Queue a message to be sent
+	 *
+	 * @param channel
+	 *            the channel to send to
+	 * @param text
+	 *            the message, at most 2000 characters
+	 * @param priority
+	 *            how important the message is
+	 * @return a future completed with the sent message. If the message is LOW
+	 *         priority and gets merged into another, it is completed with null
+	 */
+	public static CompletableFuture<Message> sendMessage(
+			MessageChannel channel, String text, Priority priority)
+	{
+		return enqueue(new Job<Message>(messageRoute(channel), priority, null,
+				channel, text));
+	}
+
+	/**
+	 * Queue any other request
+	 *
+	 * @param route
+	 *            the route to charge, e.g. roleRoute(guild)
+	 * @param priority
+	 *            how important the request is
+	 * @param action
+	 *            the request. It is queued with JDA once its route has a token
+	 * @return a future completed with the request's result
+	 */
+	public static <T> CompletableFuture<T> submit(String route,
+			Priority priority, RestAction<T> action)
+	{
+		return enqueue(new Job<>(route, priority, action, null, null));
+	}
+
+	private static <T> CompletableFuture<T> enqueue(Job<T> job)
+	{
+		queued.incrementAndGet();
+		incoming.add(job);
+		return job.future;
+	}
+
+	/**
+	 * @return human-readable queue depth and wait-time metrics
+	 */
+	public static String stats()
+	{
+		long count = dispatched.get();
+		return "queued " + queued.get() + ", sent " + count + ", avg wait "
+				+ (count == 0 ? 0
+						: TimeUnit.NANOSECONDS.toMillis(totalWait.get() / count))
+				+ "ms, max wait "
+				+ TimeUnit.NANOSECONDS.toMillis(maxWait.get())
+				+ "ms, low priority merged " + merged.get() + ", lines dropped "
+				+ dropped.get() + ", refused " + failed.get();
+	}
+
+	private static void dispatchLoop()
+	{
+		while (true)
+		{
+			try
+			{
+				long wait = Long.MAX_VALUE;
+				for (Route route : busy)
+				{
+					wait = Math.min(wait, route.bucket.nanosUntilAvailable());
+				}
+
+				Job<?> job = wait == Long.MAX_VALUE ? incoming.take()
+						: incoming.poll(wait, TimeUnit.NANOSECONDS);
+				while (job != null)
+				{
+					Route route = routes.computeIfAbsent(job.route,
+							RestScheduler::newRoute);
+					route.waiting.add(job);
+					busy.add(route);
+					job = incoming.poll();
+				}
+
+				for (Iterator<Route> it = busy.iterator(); it.hasNext();)
+				{
+					Route route = it.next();
+					drain(route);
+					if (!route.hasWork())
+					{
+						it.remove();
+					}
+				}
+				// Forget routes that haven't been used in a while
+				routes.values()
+						.removeIf(r -> !r.hasWork() && r.bucket.isFull());
+			}
+			catch (InterruptedException ex)
+			{
+				return;
+			}
+			catch (RuntimeException ex)
+			{
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	private static Route newRoute(String route)
+	{
+		return new Route(route.startsWith("roles:")
+				? new TokenBucket(roleBurst, roleRate)
+				: new TokenBucket(messageBurst, messageRate));
+	}
+
+	/**
+	 * Send as much of route's waiting work as its tokens allow, then fold any
+	 * LOW priority messages still waiting
+	 */
+	private static void drain(Route route)
+	{
+		while (!route.waiting.isEmpty() && route.bucket.tryTake())
+		{
+			dispatch(route, route.waiting.poll());
+		}
+
+		if (route.waiting.isEmpty())
+		{
+			if (route.deferred.length() > 0 && route.bucket.tryTake())
+			{
+				String text = route.deferred.toString();
+				// Chatter that can't be sent (e.g. no permission to write in
+				// the channel) is dropped rather than retried
+				route.deferred.setLength(0);
+				try
+				{
+					route.deferredChannel.sendMessage(text).queue();
+				}
+				catch (RuntimeException ex)
+				{
+					failed.incrementAndGet();
+					ex.printStackTrace();
+				}
+			}
+			return;
+		}
+
+		List<Job<?>> low = new ArrayList<>();
+		for (Iterator<Job<?>> it = route.waiting.iterator(); it.hasNext();)
+		{
+			Job<?> job = it.next();
+			if (job.priority == Priority.LOW && job.isMessage())
+			{
+				low.add(job);
+				it.remove();
+			}
+		}
+		low.sort(Comparator.comparingLong(j -> j.seq));
+		for (Job<?> job : low)
+		{
+			fold(route, job);
+		}
+	}
+
+	/**
+	 * Add a LOW priority message to its route's deferred text
+	 */
+	private static void fold(Route route, Job<?> job)
+	{
+		queued.decrementAndGet();
+		String text = job.text;
+		if (text.length() > Outbox.maxLength)
+		{
+			text = text.substring(0, Outbox.maxLength - 3) + "...";
+		}
+
+		// Keep the newest chatter, dropping the oldest lines until it fits
+		StringBuilder deferred = route.deferred;
+		int cut = 0;
+		while (cut < deferred.length()
+				&& deferred.length() - cut + 1 + text.length() > Outbox.maxLength)
+		{
+			int newline = deferred.indexOf("\n", cut);
+			cut = newline < 0 ? deferred.length() : newline + 1;
+			dropped.incrementAndGet();
+		}
+		deferred.delete(0, cut);
+
+		if (deferred.length() > 0)
+		{
+			deferred.append('\n');
+		}
+		deferred.append(text);
+		route.deferredChannel = job.channel;
+		merged.incrementAndGet();
+		job.future.complete(null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void dispatch(Route route, Job<T> job)
+	{
+		queued.decrementAndGet();
+		long waited = System.nanoTime() - job.enqueuedAt;
+		dispatched.incrementAndGet();
+		totalWait.addAndGet(waited);
+		maxWait.accumulateAndGet(waited, Math::max);
+
+		// JDA may refuse a request straight away (e.g. missing permissions,
+		// or shutting down). Fail just this job, so its caller hears about it
+		// and the other routes are still drained
+		try
+		{
+			RestAction<T> action = job.action;
+			boolean withDeferred = false;
+			if (job.isMessage())
+			{
+				String text = job.text;
+				// Send deferred chatter in front, since it came first
+				if (route.deferred.length() > 0 && route.deferred.length() + 1
+						+ text.length() <= Outbox.maxLength)
+				{
+					text = route.deferred + "\n" + text;
+					withDeferred = true;
+				}
+				action = (RestAction<T>) job.channel.sendMessage(text);
+			}
+			action.queue(job.future::complete,
+					job.future::completeExceptionally);
+			if (withDeferred)
+			{
+				route.deferred.setLength(0);
+			}
+		}
+		catch (RuntimeException ex)
+		{
+			failed.incrementAndGet();
+			job.future.completeExceptionally(ex);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package bot.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket: holds up to capacity tokens, refilled continuously at a
+ * fixed rate. Each permitted action takes one token.
+ *
+ * Thread-safe without locking: the whole state is one timestamp, the time at
+ * which the bucket will be full again, updated by compare-and-set. Taking a
+ * token pushes that time one refill interval later; the bucket has a token to
+ * spare as long as it stays within capacity intervals of now
+ *
+ * @author Namdrib
+ *
+ */
+public class TokenBucket
+{
+	private final long			interval;
+	private final long			span;
+	private final AtomicLong	fullAt;
+
+	/**
+	 * @param capacity
+	 *            maximum (and initial) number of tokens, i.e. the largest
+	 *            allowed burst
+	 * @param perSecond
+	 *            tokens added per second
+	 * @throws IllegalArgumentException
+	 *             if capacity is not positive, or perSecond is not positive
+	 *             and finite (or is too small to represent). Callers wanting
+	 *             no limit should not use a bucket
+	 */
+	public TokenBucket(int capacity, double perSecond)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException(
+					"capacity must be positive: " + capacity);
+		}
+		// Also rejects NaN
+		if (!(perSecond > 0) || Double.isInfinite(perSecond))
+		{
+			throw new IllegalArgumentException(
+					"perSecond must be positive: " + perSecond);
+		}
+		interval = Math.max(1, Math.round(1e9 / perSecond));
+		// Keep times of refill well clear of overflow
+		if (interval > Long.MAX_VALUE / 4 / capacity)
+		{
+			throw new IllegalArgumentException(
+					"perSecond is too small: " + perSecond);
+		}
+		span = capacity * interval;
+		fullAt = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Take a token if one is available
+	 *
+	 * @return true iff a token was taken
+	 */
+	public boolean tryTake()
+	{
+		while (true)
+		{
+			long now = System.nanoTime();
+			long current = fullAt.get();
+			long next = Math.max(current - now, 0) + interval;
+			if (next > span)
+			{
+				return false;
+			}
+			if (fullAt.compareAndSet(current, now + next))
+			{
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Return a token taken by tryTake() that ended up unused. The bucket never
+	 * holds more than its capacity
+	 */
+	public void giveBack()
+	{
+		while (true)
+		{
+			long now = System.nanoTime();
+			long current = fullAt.get();
+			if (current - now <= 0)
+			{
+				return;
+			}
+			if (fullAt.compareAndSet(current,
+					Math.max(current - interval, now)))
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return nanoseconds until a token will be available, 0 if one is now
+	 */
+	public long nanosUntilAvailable()
+	{
+		long now = System.nanoTime();
+		return Math.max(0,
+				Math.max(fullAt.get() - now, 0) + interval - span);
+	}
+
+	/**
+	 * @return true iff the bucket has refilled completely, i.e. it has not
+	 *         been used recently
+	 */
+	public boolean isFull()
+	{
+		return fullAt.get() - System.nanoTime() <= 0;
+	}
+}
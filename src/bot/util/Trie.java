@@ -0,0 +1,127 @@
+package bot.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps words to values, ignoring case. Lookups read the word straight out of
+ * a larger string (e.g. a message's content) and do not allocate, so the
+ * whole dispatch of a message costs one walk over each word.
+ * 
+ * Built once and then only read; put() must not be called while other
+ * threads are looking words up
+ * 
+ * @author Namdrib
+ *
+ */
+public class Trie<T>
+{
+	private static final Trie<?>[]	none		= new Trie<?>[0];
+
+	private char[]					keys		= new char[0];
+	private Trie<T>[]				children	= newArray(0);
+	private T						value;
+
+	@SuppressWarnings("unchecked")
+	private static <T> Trie<T>[] newArray(int size)
+	{
+		return size == 0 ? (Trie<T>[]) none : (Trie<T>[]) new Trie<?>[size];
+	}
+
+	/**
+	 * Map a word to a value, replacing any previous value for the word
+	 * 
+	 * @param word
+	 *            the word (any case)
+	 * @param value
+	 *            the value
+	 * @return the previous value for word, or null if there was none
+	 */
+	public T put(String word, T value)
+	{
+		Trie<T> node = this;
+		for (int i = 0; i < word.length(); i++)
+		{
+			node = node.child(Character.toLowerCase(word.charAt(i)));
+		}
+		T previous = node.value;
+		node.value = value;
+		return previous;
+	}
+
+	private Trie<T> child(char c)
+	{
+		int i = Arrays.binarySearch(keys, c);
+		if (i >= 0)
+		{
+			return children[i];
+		}
+		i = -i - 1;
+		char[] newKeys = new char[keys.length + 1];
+		Trie<T>[] newChildren = newArray(keys.length + 1);
+		System.arraycopy(keys, 0, newKeys, 0, i);
+		System.arraycopy(children, 0, newChildren, 0, i);
+		System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+		System.arraycopy(children, i, newChildren, i + 1, keys.length - i);
+		newKeys[i] = c;
+		newChildren[i] = new Trie<>();
+		keys = newKeys;
+		children = newChildren;
+		return newChildren[i];
+	}
+
+	/**
+	 * Look up the word s[start, end), ignoring case
+	 * 
+	 * @param s
+	 *            the string containing the word
+	 * @param start
+	 *            index of the first character of the word
+	 * @param end
+	 *            index just after the last character of the word
+	 * @return the value mapped to the word, or null if there is none
+	 */
+	public T get(CharSequence s, int start, int end)
+	{
+		Trie<T> node = this;
+		for (int i = start; i < end && node != null; i++)
+		{
+			int j = Arrays.binarySearch(node.keys,
+					Character.toLowerCase(s.charAt(i)));
+			node = j < 0 ? null : node.children[j];
+		}
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * @param s
+	 *            a string
+	 * @param from
+	 *            where to start looking
+	 * @return the index of the first non-whitespace character at or after
+	 *         from, or s.length() if there is none
+	 */
+	public static int skipSpace(CharSequence s, int from)
+	{
+		while (from < s.length() && Character.isWhitespace(s.charAt(from)))
+		{
+			from++;
+		}
+		return from;
+	}
+
+	/**
+	 * @param s
+	 *            a string
+	 * @param from
+	 *            the start of a word
+	 * @return the index just after the word starting at from
+	 */
+	public static int wordEnd(CharSequence s, int from)
+	{
+		while (from < s.length() && !Character.isWhitespace(s.charAt(from)))
+		{
+			from++;
+		}
+		return from;
+	}
+}
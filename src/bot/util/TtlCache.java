@@ -0,0 +1,194 @@
+package bot.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded, thread-safe cache whose entries go stale after a fixed time. When
+ * full, the least recently used entry is evicted.
+ *
+ * Missing or stale values are loaded on Workers. If several callers ask for
+ * the same missing key at once, they all share a single load
+ *
+ * @author Namdrib
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class TtlCache<K, V>
+{
+	private static class Timed<V>
+	{
+		final V		value;
+		final long	expiresAt;
+
+		Timed(V value, long expiresAt)
+		{
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final long							ttlNanos;
+	private final Map<K, Timed<V>>				entries;
+	private final Map<K, CompletableFuture<V>>	inFlight	= new ConcurrentHashMap<>();
+
+	private final AtomicLong					hits		= new AtomicLong();
+	private final AtomicLong					misses		= new AtomicLong();
+	private final AtomicLong					shared		= new AtomicLong();
+	private final AtomicLong					evictions	= new AtomicLong();
+
+	/**
+	 * @param maxSize
+	 *            maximum number of entries to keep
+	 * @param ttl
+	 *            how long an entry stays fresh
+	 * @param unit
+	 *            unit of ttl
+	 */
+	public TtlCache(int maxSize, long ttl, TimeUnit unit)
+	{
+		ttlNanos = unit.toNanos(ttl);
+		entries = new LinkedHashMap<K, Timed<V>>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Timed<V>> eldest)
+			{
+				if (size() > maxSize)
+				{
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param key
+	 *            key to look up
+	 * @return the fresh value for key, or null if it's missing or stale
+	 */
+	public V getIfPresent(K key)
+	{
+		synchronized (entries)
+		{
+			Timed<V> entry = entries.get(key);
+			if (entry == null)
+			{
+				return null;
+			}
+			if (entry.expiresAt - System.nanoTime() <= 0)
+			{
+				entries.remove(key);
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Store a value, replacing any existing one. Null values are not stored
+	 *
+	 * @param key
+	 *            key to store under
+	 * @param value
+	 *            value to store
+	 */
+	public void put(K key, V value)
+	{
+		if (value == null)
+		{
+			return;
+		}
+		synchronized (entries)
+		{
+			entries.put(key,
+					new Timed<>(value, System.nanoTime() + ttlNanos));
+		}
+	}
+
+	/**
+	 * Get the value for key, loading it on Workers if it is missing or stale.
+	 * Concurrent calls for the same key share one load
+	 *
+	 * @param key
+	 *            key to look up
+	 * @param loader
+	 *            computes the value for a key. May block. A null result is
+	 *            passed on to callers but not cached
+	 * @return a future completed with the value, or exceptionally with
+	 *         whatever loader threw
+	 */
+	public CompletableFuture<V> get(K key,
+			Function<? super K, ? extends V> loader)
+	{
+		V cached = getIfPresent(key);
+		if (cached != null)
+		{
+			hits.incrementAndGet();
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		CompletableFuture<V> load = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, load);
+		if (existing != null)
+		{
+			shared.incrementAndGet();
+			return existing;
+		}
+		misses.incrementAndGet();
+
+		Workers.supply(() -> loader.apply(key)).whenComplete((value, ex) -> {
+			if (ex == null)
+			{
+				put(key, value);
+			}
+			inFlight.remove(key, load);
+			if (ex == null)
+			{
+				load.complete(value);
+			}
+			else
+			{
+				load.completeExceptionally(ex);
+			}
+		});
+		return load;
+	}
+
+	/**
+	 * @return number of entries currently held (fresh or not)
+	 */
+	public int size()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return human-readable hit/miss counters
+	 */
+	public String stats()
+	{
+		long h = hits.get();
+		long m = misses.get();
+		long s = shared.get();
+		long total = h + m + s;
+		return "size " + size() + ", hits " + h + ", misses " + m
+				+ ", shared loads " + s + ", evictions " + evictions.get()
+				+ ", hit rate "
+				+ (total == 0 ? 0 : (100 * (h + s) / total)) + "%";
+	}
+}
@@ -0,0 +1,218 @@
+package bot.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs blocking work (HTTP fetches, slow computations) away from the JDA event
+ * thread, so one slow task never holds up messages from other guilds.
+ *
+ * Uses a virtual thread per task on JDKs that provide them, and a fixed pool
+ * of daemon threads otherwise. Either way, at most `workers.maxPending` tasks
+ * may be queued or running at once; any more are rejected straight away
+ * rather than piling up. Settings (see Config):
+ * <ul>
+ * <li>`workers.threads`: size of the fallback pool</li>
+ * <li>`workers.maxPending`: maximum queued + running tasks</li>
+ * <li>`workers.virtual`: set to false to always use the fallback pool</li>
+ * </ul>
+ *
+ * @author Namdrib
+ *
+ */
+public class Workers
+{
+	private static final int				threads		= Config.getInt(
+			"workers.threads",
+			Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+	private static final int				maxPending	= Config
+			.getInt("workers.maxPending", 256);
+
+	private static final Semaphore			permits		= new Semaphore(
+			maxPending);
+	private static final ExecutorService	executor	= createExecutor();
+
+	private static ExecutorService createExecutor()
+	{
+		if (Config.getBoolean("workers.virtual", true))
+		{
+			try
+			{
+				// Only exists on JDK 21+, so look it up reflectively
+				ExecutorService virtual = (ExecutorService) Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor")
+						.invoke(null);
+				System.out.println("Workers: using virtual threads, "
+						+ maxPending + " max pending");
+				return virtual;
+			}
+			catch (ReflectiveOperationException | RuntimeException ex)
+			{
+				// Older JDK, fall through to a normal pool
+			}
+		}
+
+		System.out.println("Workers: using " + threads + " threads, "
+				+ maxPending + " max pending");
+		return Executors.newFixedThreadPool(threads, daemonThreads("worker"));
+	}
+
+	/**
+	 * Create a ThreadFactory for named daemon threads, so background pools
+	 * never keep the JVM alive on their own
+	 *
+	 * @param name
+	 *            prefix for the thread names
+	 * @return a ThreadFactory producing threads named `name-1`, `name-2`, ...
+	 */
+	public static ThreadFactory daemonThreads(String name)
+	{
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * Run a task on the worker executor
+	 *
+	 * @param task
+	 *            the (possibly blocking) work to do
+	 * @return a future completed with the task's result. It is completed
+	 *         exceptionally with whatever the task threw, or with a
+	 *         RejectedExecutionException if too many tasks are pending
+	 */
+	public static <T> CompletableFuture<T> supply(Supplier<T> task)
+	{
+		CompletableFuture<T> out = new CompletableFuture<>();
+		if (!permits.tryAcquire())
+		{
+			out.completeExceptionally(new RejectedExecutionException(
+					maxPending + " tasks already pending"));
+			return out;
+		}
+
+		try
+		{
+			executor.execute(() -> {
+				try
+				{
+					out.complete(task.get());
+				}
+				catch (Throwable t)
+				{
+					out.completeExceptionally(t);
+				}
+				finally
+				{
+					permits.release();
+				}
+			});
+		}
+		catch (RejectedExecutionException ex)
+		{
+			permits.release();
+			out.completeExceptionally(ex);
+		}
+		return out;
+	}
+
+	/**
+	 * Run a task with no result on the worker executor
+	 *
+	 * @param task
+	 *            the (possibly blocking) work to do
+	 * @return a future completed when the task finishes. See supply(Supplier)
+	 */
+	public static CompletableFuture<Void> run(Runnable task)
+	{
+		return supply(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Start an asynchronous task for each item, with at most parallelism of
+	 * them running at once. Tasks are started in order, each as soon as an
+	 * earlier one finishes
+	 *
+	 * @param items
+	 *            the inputs, one task each
+	 * @param parallelism
+	 *            the maximum number of tasks in progress at once
+	 * @param task
+	 *            starts the work for one item
+	 * @return one future per item, in the same order as items, completed
+	 *         with that item's result (or exception)
+	 */
+	public static <T, R> List<CompletableFuture<R>> throttle(List<T> items,
+			int parallelism, Function<? super T, CompletableFuture<R>> task)
+	{
+		List<CompletableFuture<R>> results = new ArrayList<>(items.size());
+		for (int i = 0; i < items.size(); i++)
+		{
+			results.add(new CompletableFuture<>());
+		}
+
+		AtomicInteger next = new AtomicInteger();
+		for (int i = 0; i < Math.min(Math.max(1, parallelism),
+				items.size()); i++)
+		{
+			startNext(items, results, next, task);
+		}
+		return results;
+	}
+
+	private static <T, R> void startNext(List<T> items,
+			List<CompletableFuture<R>> results, AtomicInteger next,
+			Function<? super T, CompletableFuture<R>> task)
+	{
+		int i = next.getAndIncrement();
+		if (i >= items.size())
+		{
+			return;
+		}
+
+		CompletableFuture<R> started;
+		try
+		{
+			started = task.apply(items.get(i));
+		}
+		catch (RuntimeException ex)
+		{
+			started = new CompletableFuture<>();
+			started.completeExceptionally(ex);
+		}
+		started.whenComplete((result, ex) -> {
+			if (ex == null)
+			{
+				results.get(i).complete(result);
+			}
+			else
+			{
+				results.get(i).completeExceptionally(ex);
+			}
+			startNext(items, results, next, task);
+		});
+	}
+
+	/**
+	 * @return the number of tasks currently queued or running
+	 */
+	public static int pending()
+	{
+		return maxPending - permits.availablePermits();
+	}
+}
@@ -0,0 +1,84 @@
+package bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.jupiter.api.Test;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.entities.TextChannel;
+
+/**
+ * Checks that mentions in arguments are read as the names they mention
+ *
+ * @author Namdrib
+ *
+ */
+class CommandContextTest
+{
+	@SuppressWarnings("unchecked")
+	private static <T> T named(Class<T> type, String getter, String name)
+	{
+		return (T) Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, (proxy, method, args) -> method
+						.getName().equals(getter) ? name : null);
+	}
+
+	// Role 11 "Gamers", member 22 "Sam", channel 33 "general"
+	private static final Guild guild = (Guild) Proxy.newProxyInstance(
+			Guild.class.getClassLoader(), new Class<?>[] { Guild.class },
+			(proxy, method, args) -> {
+				long id = args != null && args[0] instanceof Long
+						? (Long) args[0] : -1;
+				switch (method.getName())
+				{
+					case "getRoleById":
+						return id == 11 ? named(Role.class, "getName", "Gamers")
+								: null;
+					case "getMemberById":
+						return id == 22 ? named(Member.class,
+								"getEffectiveName", "Sam") : null;
+					case "getTextChannelById":
+						return id == 33 ? named(TextChannel.class, "getName",
+								"general") : null;
+					default:
+						return null;
+				}
+			});
+
+	private static String name(String word)
+	{
+		String s = "x " + word + " y";
+		return CommandContext.mentionedName(guild, s, 2, 2 + word.length());
+	}
+
+	@Test
+	void mentionsAreNamed()
+	{
+		assertEquals("Gamers", name("<@&11>"));
+		assertEquals("Sam", name("<@22>"));
+		assertEquals("Sam", name("<@!22>"));
+		assertEquals("general", name("<#33>"));
+	}
+
+	@Test
+	void otherWordsAreNot()
+	{
+		assertNull(name("Gamers"));
+		assertNull(name("<@&12>"));
+		assertNull(name("<@&>"));
+		assertNull(name("<@&1x>"));
+		assertNull(name("<:emoji:11>"));
+		assertNull(name("<https://www.ozbargain.com.au/node/1>"));
+		assertNull(name("<@&99999999999999999999999>"));
+
+		// Not mention syntax, though the ids exist
+		assertNull(name("<!22>"));
+		assertNull(name("<&11>"));
+		assertNull(name("<#!33>"));
+	}
+}
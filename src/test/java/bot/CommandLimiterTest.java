@@ -0,0 +1,59 @@
+package bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import bot.CommandLimiter.Verdict;
+
+/**
+ * Checks CommandLimiter with the default limits: 5 per user, 20 per guild and
+ * 10 per module per guild, refilling far slower than the test runs
+ *
+ * @author Namdrib
+ *
+ */
+class CommandLimiterTest
+{
+	private static boolean allowed(Verdict verdict)
+	{
+		return verdict == Verdict.ALLOW;
+	}
+
+	@Test
+	void userBurstIsLimited()
+	{
+		CommandLimiter limiter = new CommandLimiter();
+		for (int i = 0; i < 5; i++)
+		{
+			assertTrue(allowed(limiter.check(1, 100, "role")));
+		}
+		assertEquals(Verdict.NOTIFY, limiter.check(1, 100, "role"));
+		// Told once, then shed silently
+		assertEquals(Verdict.SHED, limiter.check(1, 100, "role"));
+	}
+
+	@Test
+	void shedInvocationTakesNothing()
+	{
+		CommandLimiter limiter = new CommandLimiter();
+		// Two users use up the module's 10
+		for (int i = 0; i < 5; i++)
+		{
+			assertTrue(allowed(limiter.check(1, 100, "ozb")));
+			assertTrue(allowed(limiter.check(2, 100, "ozb")));
+		}
+		// A third user is shed by the module...
+		assertFalse(allowed(limiter.check(3, 100, "ozb")));
+		// ...without spending their own or the guild's tokens on it
+		for (int i = 0; i < 5; i++)
+		{
+			assertTrue(allowed(limiter.check(3, 100, "role")));
+		}
+		assertFalse(allowed(limiter.check(3, 100, "role")));
+		assertTrue(limiter.stats().contains("per module 1"),
+				limiter.stats());
+	}
+}
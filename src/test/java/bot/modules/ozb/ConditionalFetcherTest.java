@@ -0,0 +1,129 @@
+package bot.modules.ozb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks ConditionalFetcher against a stand-in server serving the fixture
+ * feed and deal page: full downloads, 304s and the validators sent back
+ *
+ * @author Namdrib
+ *
+ */
+class ConditionalFetcherTest
+{
+	private static final String	lastModified	= "Mon, 12 Mar 2018 09:00:00 GMT";
+
+	private StandInServer		server;
+
+	@BeforeEach
+	void start() throws IOException
+	{
+		server = new StandInServer();
+	}
+
+	@AfterEach
+	void stop()
+	{
+		server.close();
+	}
+
+	@Test
+	void firstFetchDownloadsWithoutValidators() throws IOException
+	{
+		server.serve("/deals/feed", "feed.xml", "\"v1\"", lastModified);
+		ConditionalFetcher fetcher = new ConditionalFetcher(
+				server.getBaseUrl() + "/deals/feed");
+
+		assertTrue(fetcher.fetch());
+		assertEquals(StandInServer.fixtureText("feed.xml"), fetcher.getBody());
+		assertNull(server.lastRequest().getFirst("If-None-Match"));
+		assertNull(server.lastRequest().getFirst("If-Modified-Since"));
+	}
+
+	@Test
+	void unchangedPageIsNotModifiedByEtag() throws IOException
+	{
+		server.serve("/node/123456", "deal-expiry.html", "\"v1\"", null);
+		ConditionalFetcher fetcher = new ConditionalFetcher(
+				server.getBaseUrl() + "/node/123456");
+
+		assertTrue(fetcher.fetch());
+		assertFalse(fetcher.fetch());
+		assertEquals("\"v1\"", server.lastRequest().getFirst("If-None-Match"));
+		assertNull(server.lastRequest().getFirst("If-Modified-Since"));
+		// The previous body is kept
+		assertEquals(StandInServer.fixtureText("deal-expiry.html"),
+				fetcher.getBody());
+	}
+
+	@Test
+	void unchangedPageIsNotModifiedByDate() throws IOException
+	{
+		server.serve("/deals/feed", "feed.xml", null, lastModified);
+		ConditionalFetcher fetcher = new ConditionalFetcher(
+				server.getBaseUrl() + "/deals/feed");
+
+		assertTrue(fetcher.fetch());
+		assertFalse(fetcher.fetch());
+		assertEquals(lastModified,
+				server.lastRequest().getFirst("If-Modified-Since"));
+		assertNull(server.lastRequest().getFirst("If-None-Match"));
+	}
+
+	@Test
+	void changedPageIsDownloadedAgain() throws IOException
+	{
+		server.serve("/node/123456", "deal-expiry.html", "\"v1\"",
+				lastModified);
+		ConditionalFetcher fetcher = new ConditionalFetcher(
+				server.getBaseUrl() + "/node/123456");
+		assertTrue(fetcher.fetch());
+
+		server.serve("/node/123456", "feed.xml", "\"v2\"",
+				"Tue, 13 Mar 2018 09:00:00 GMT");
+		assertTrue(fetcher.fetch());
+		assertEquals("\"v1\"", server.lastRequest().getFirst("If-None-Match"));
+		assertEquals(StandInServer.fixtureText("feed.xml"), fetcher.getBody());
+
+		// The new validators are sent next time
+		assertFalse(fetcher.fetch());
+		assertEquals("\"v2\"", server.lastRequest().getFirst("If-None-Match"));
+	}
+
+	@Test
+	void pageWithoutValidatorsIsComparedByBody() throws IOException
+	{
+		server.serve("/deals/feed", "feed.xml", null, null);
+		ConditionalFetcher fetcher = new ConditionalFetcher(
+				server.getBaseUrl() + "/deals/feed");
+
+		assertTrue(fetcher.fetch());
+		assertFalse(fetcher.fetch());
+		assertNull(server.lastRequest().getFirst("If-None-Match"));
+		assertNull(server.lastRequest().getFirst("If-Modified-Since"));
+
+		server.serve("/deals/feed", "deal-expiry.html", null, null);
+		assertTrue(fetcher.fetch());
+	}
+
+	@Test
+	void errorStatusThrows()
+	{
+		server.fail("/deals/feed", 503);
+		ConditionalFetcher fetcher = new ConditionalFetcher(
+				server.getBaseUrl() + "/deals/feed");
+
+		assertThrows(IOException.class, fetcher::fetch);
+		assertNull(fetcher.getBody());
+	}
+}
@@ -0,0 +1,135 @@
+package bot.modules.ozb;
+
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Compares DealPageParser with the way deal pages were read before it: the
+ * whole page parsed by Jsoup, then each field found with doc.select(...)
+ * selector strings. Each saved deal page has its comments repeated to the
+ * size of a popular deal's page. Reports time and bytes allocated per lookup.
+ * Not run as part of the tests; run its main method, optionally with the
+ * number of rounds
+ *
+ * @author Namdrib
+ *
+ */
+public class DealPageParserBenchmark
+{
+	private static final String[]		fixtures	= { "deal-expiry.html",
+			"deal-no-expiry.html", "deal-expired.html",
+			"deal-changed-layout.html" };
+
+	// A busy deal's page is a few MB, nearly all of it comments
+	private static final int			targetSize	= 2 * 1024 * 1024;
+
+	private static final ThreadMXBean	threads		= (ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private static Object				sink;
+
+	public static void main(String[] args)
+	{
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		String baseUri = "https://www.ozbargain.com.au/node/1";
+
+		for (String fixture : fixtures)
+		{
+			String html = enlarge(StandInServer.fixtureText(fixture));
+			Supplier<OzbDeal> prefix = () -> {
+				try
+				{
+					return DealPageParser.parse(1, html, baseUri);
+				}
+				catch (DealParseException ex)
+				{
+					throw new UncheckedIOException(ex);
+				}
+			};
+			Supplier<OzbDeal> whole = () -> previousParse(1,
+					Jsoup.parse(html, baseUri));
+
+			// Warm up both paths before measuring them
+			measure(prefix, rounds);
+			measure(whole, rounds);
+
+			long[] p = measure(prefix, rounds);
+			long[] w = measure(whole, rounds);
+			System.out.printf(
+					"%-26s %5d KB  prefix %8.3f ms %9d KB  whole %8.3f ms %9d KB%n",
+					fixture, html.length() / 1024, p[0] / 1e6, p[1] / 1024,
+					w[0] / 1e6, w[1] / 1024);
+		}
+	}
+
+	/**
+	 * @return nanoseconds and bytes allocated per call of parse
+	 */
+	private static long[] measure(Supplier<OzbDeal> parse, int rounds)
+	{
+		long id = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(id);
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+		{
+			sink = parse.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(id) - allocated;
+		return new long[] { elapsed / rounds, allocated / rounds };
+	}
+
+	/**
+	 * Read a deal out of a whole page as DealLookup did before
+	 * DealPageParser, selecting each field by its selector string
+	 */
+	private static OzbDeal previousParse(long nodeId, Document doc)
+	{
+		if (doc.selectFirst(".node-ozbdeal") == null)
+		{
+			return null;
+		}
+
+		Elements dealVotes = doc.select(".nvb");
+		int upvotes = Integer.parseInt(dealVotes.first().text().trim());
+		int downvotes = Integer.parseInt(dealVotes.last().text().trim());
+		String clicks = doc.selectFirst(".nodeclicks").text().trim();
+
+		String submitted = doc.selectFirst(".submitted").ownText();
+		int edited = submitted.indexOf(" Last edited");
+		String submitDateTime = (edited < 0 ? submitted
+				: submitted.substring(0, edited)).trim();
+		Element expiry = doc.selectFirst(".nodeexpiry");
+
+		return new OzbDeal(nodeId, doc.title(), upvotes, downvotes, clicks,
+				submitDateTime, expiry == null ? "never" : expiry.text().trim());
+	}
+
+	/**
+	 * Repeat the comments of a page until it is about targetSize long
+	 */
+	private static String enlarge(String html)
+	{
+		int commentsAt = html.indexOf("id=\"comments\"");
+		int commentsEnd = html.lastIndexOf("</div>");
+		String comments = html.substring(html.indexOf('>', commentsAt) + 1,
+				commentsEnd);
+
+		StringBuilder page = new StringBuilder(targetSize + html.length());
+		page.append(html, 0, commentsEnd);
+		while (page.length() < targetSize)
+		{
+			page.append(comments);
+		}
+		page.append(html, commentsEnd, html.length());
+		return page.toString();
+	}
+}
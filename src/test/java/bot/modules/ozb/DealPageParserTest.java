@@ -0,0 +1,176 @@
+package bot.modules.ozb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that parsing only the start of a deal page gives the same deal as
+ * parsing the whole page, for the saved pages in the `ozb` test resources,
+ * and that it does stop early
+ *
+ * @author Namdrib
+ *
+ */
+class DealPageParserTest
+{
+	private static final String baseUri = "https://www.ozbargain.com.au/node/";
+
+	/**
+	 * A Reader that hands out at most a few characters at a time, so that
+	 * markers straddle reads, and counts how many were read
+	 */
+	private static class TrickleReader extends Reader
+	{
+		private final Reader	in;
+		private final int		most;
+		private int				read;
+
+		TrickleReader(String s, int most)
+		{
+			this.in = new StringReader(s);
+			this.most = most;
+		}
+
+		@Override
+		public int read(char[] buffer, int off, int len) throws IOException
+		{
+			int n = in.read(buffer, off, Math.min(len, most));
+			if (n > 0)
+			{
+				read += n;
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Parse a fixture both ways, check they agree and that the prefix parse
+	 * read less than the whole page
+	 *
+	 * @return the deal
+	 */
+	private static OzbDeal parseBothWays(String fixture, long nodeId)
+			throws IOException
+	{
+		String html = StandInServer.fixtureText(fixture);
+		OzbDeal whole = DealPageParser.fromDocument(nodeId,
+				Jsoup.parse(html, baseUri + nodeId));
+
+		OzbDeal prefix = DealPageParser.parse(nodeId, html, baseUri + nodeId);
+		assertEquals(String.valueOf(whole), String.valueOf(prefix), fixture);
+
+		TrickleReader trickle = new TrickleReader(html, 7);
+		OzbDeal trickled = DealPageParser.parse(nodeId, trickle,
+				baseUri + nodeId);
+		assertEquals(String.valueOf(whole), String.valueOf(trickled), fixture);
+		assertTrue(trickle.read < html.length() / 4,
+				fixture + ": read " + trickle.read + " of " + html.length());
+		return prefix;
+	}
+
+	@Test
+	void dealWithExpiry() throws IOException
+	{
+		OzbDeal deal = parseBothWays("deal-expiry.html", 123456);
+		assertEquals(123456, deal.getNodeId());
+		assertEquals("50% off Widgets @ Example Store - OzBargain",
+				deal.getTitle());
+		assertEquals(87, deal.getUpvotes());
+		assertEquals(3, deal.getDownvotes());
+		assertEquals("1,234 clicks", deal.getClicks());
+		assertEquals("Deal posted by on 10/03/2018 - 10:15", deal.getPosted());
+		assertEquals("15 Apr 10:00am", deal.getExpiry());
+	}
+
+	@Test
+	void dealWithoutExpiry() throws IOException
+	{
+		OzbDeal deal = parseBothWays("deal-no-expiry.html", 234567);
+		assertEquals(42, deal.getUpvotes());
+		assertEquals(1, deal.getDownvotes());
+		assertEquals("512 clicks", deal.getClicks());
+		assertEquals("never", deal.getExpiry());
+	}
+
+	@Test
+	void expiredDeal() throws IOException
+	{
+		OzbDeal deal = parseBothWays("deal-expired.html", 345678);
+		assertEquals(15, deal.getUpvotes());
+		assertEquals(6, deal.getDownvotes());
+		assertEquals("Expired 28 Feb", deal.getExpiry());
+	}
+
+	@Test
+	void changedLayout() throws IOException
+	{
+		// Fields in another order, and their class names mentioned in a
+		// script before the deal
+		OzbDeal deal = parseBothWays("deal-changed-layout.html", 456789);
+		assertEquals(120, deal.getUpvotes());
+		assertEquals(4, deal.getDownvotes());
+		assertEquals("4,096 clicks", deal.getClicks());
+		assertEquals("20 Mar 11:59pm", deal.getExpiry());
+	}
+
+	@Test
+	void forumPostIsNotADeal() throws IOException
+	{
+		String html = StandInServer.fixtureText("forum-post.html");
+		assertNull(DealPageParser.fromDocument(567890, Jsoup.parse(html)));
+
+		TrickleReader trickle = new TrickleReader(html, 7);
+		assertNull(DealPageParser.parse(567890, trickle, baseUri + 567890));
+		assertTrue(trickle.read < html.length() / 4);
+	}
+
+	@Test
+	void missingFieldsAreAParseError() throws IOException
+	{
+		// A deal without its down votes or click count
+		String html = StandInServer.fixtureText("deal-missing-fields.html");
+		assertThrows(DealParseException.class, () -> DealPageParser
+				.fromDocument(234567, Jsoup.parse(html, baseUri + 234567)));
+		assertThrows(DealParseException.class,
+				() -> DealPageParser.parse(234567, html, baseUri + 234567));
+
+		// Votes present, but no click count
+		String noClicks = StandInServer.fixtureText("deal-no-expiry.html")
+				.replace("class=\"nodeclicks\"", "class=\"views\"");
+		DealParseException ex = assertThrows(DealParseException.class,
+				() -> DealPageParser.parse(234567,
+						new TrickleReader(noClicks, 7), baseUri + 234567));
+		assertTrue(ex.getMessage().contains("click"), ex.getMessage());
+	}
+
+	@Test
+	void lookupStreamsFromServer() throws Exception
+	{
+		try (StandInServer server = new StandInServer())
+		{
+			server.serve("/node/123456", "deal-expiry.html", null, null);
+			DealLookup lookup = new DealLookup(server.getBaseUrl(), 10, 60);
+
+			OzbDeal deal = lookup.lookup(123456).get();
+			assertNotNull(deal);
+			assertEquals(87, deal.getUpvotes());
+			assertEquals("15 Apr 10:00am", deal.getExpiry());
+		}
+	}
+}
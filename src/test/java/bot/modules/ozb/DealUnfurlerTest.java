@@ -0,0 +1,66 @@
+package bot.modules.ozb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import net.dv8tion.jda.core.entities.TextChannel;
+
+/**
+ * Checks that a deal whose lookup fails is not counted as summarised
+ *
+ * @author Namdrib
+ *
+ */
+class DealUnfurlerTest
+{
+	private static TextChannel channel(long id)
+	{
+		return (TextChannel) Proxy.newProxyInstance(
+				TextChannel.class.getClassLoader(),
+				new Class<?>[] { TextChannel.class },
+				(proxy, method, args) -> "getIdLong".equals(method.getName())
+						? id : null);
+	}
+
+	/**
+	 * Wait for the unfurler's lookups to finish, as shown by its stats
+	 */
+	private static String awaitStats(DealUnfurler unfurler, String expected)
+			throws InterruptedException
+	{
+		for (int i = 0; i < 100 && !unfurler.stats().equals(expected); i++)
+		{
+			Thread.sleep(50);
+		}
+		return unfurler.stats();
+	}
+
+	@Test
+	void failedLookupReleasesClaim() throws Exception
+	{
+		try (StandInServer server = new StandInServer())
+		{
+			server.fail("/node/123456", 500);
+			// Cache nothing, so each lookup is fetched
+			DealUnfurler unfurler = new DealUnfurler(
+					new DealLookup(server.getBaseUrl(), 0, 0));
+			TextChannel channel = channel(1);
+			String content = "see https://www.ozbargain.com.au/node/123456";
+
+			unfurler.handleEmbeds(channel, 1, content,
+					Collections.emptyList());
+			assertEquals("unfurled 0, suppressed 0, failed 1",
+					awaitStats(unfurler, "unfurled 0, suppressed 0, failed 1"));
+
+			// Tried again rather than suppressed
+			unfurler.handleEmbeds(channel, 2, content,
+					Collections.emptyList());
+			assertEquals("unfurled 0, suppressed 0, failed 2",
+					awaitStats(unfurler, "unfurled 0, suppressed 0, failed 2"));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package bot.modules.ozb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import net.dv8tion.jda.core.entities.TextChannel;
+
+/**
+ * Checks that a channel can't watch more than its share of deals and
+ * keywords (with the default limits)
+ *
+ * @author Namdrib
+ *
+ */
+class DealWatcherTest
+{
+	private static TextChannel channel(long id)
+	{
+		return (TextChannel) Proxy.newProxyInstance(
+				TextChannel.class.getClassLoader(),
+				new Class<?>[] { TextChannel.class },
+				(proxy, method, args) -> "getIdLong".equals(method.getName())
+						? id : null);
+	}
+
+	/**
+	 * A watcher whose polls won't fire during the test
+	 */
+	private static DealWatcher watcher()
+	{
+		DealLookup deals = new DealLookup("http://127.0.0.1:9", 0, 0);
+		return new DealWatcher(deals, "http://127.0.0.1:9/deals/feed", 86400,
+				86400);
+	}
+
+	@Test
+	void channelDealLimit()
+	{
+		DealWatcher watcher = watcher();
+		TextChannel channel = channel(1);
+		for (int i = 0; i < 10; i++)
+		{
+			assertTrue(watcher.watchDeal(channel, 100000 + i, 50));
+		}
+		assertFalse(watcher.watchDeal(channel, 200000, 50));
+
+		// Changing a threshold isn't another deal, and other channels have
+		// their own limit
+		assertTrue(watcher.watchDeal(channel, 100000, 80));
+		assertTrue(watcher.watchDeal(channel(2), 200000, 50));
+		assertEquals(11, watcher.unwatchAll(channel)
+				+ watcher.unwatchAll(channel(2)));
+	}
+
+	@Test
+	void channelKeywordLimit()
+	{
+		DealWatcher watcher = watcher();
+		TextChannel channel = channel(1);
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 25; i++)
+		{
+			words.add("word" + i);
+		}
+		assertEquals(words.subList(20, 25),
+				watcher.watchKeywords(channel, words));
+
+		// Already watched, so nothing is refused
+		assertEquals(0, watcher.watchKeywords(channel,
+				Arrays.asList("WORD1", "word2")).size());
+		assertEquals(20, watcher.unwatchAll(channel));
+	}
+}
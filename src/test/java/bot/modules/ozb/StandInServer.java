@@ -0,0 +1,194 @@
+package bot.modules.ozb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for OzBargain. Serves fixture pages from
+ * the test resources, optionally with ETag and Last-Modified validators,
+ * answering conditional requests with 304 when the page hasn't changed, and
+ * records the headers of every request
+ *
+ * @author Namdrib
+ *
+ */
+class StandInServer implements AutoCloseable
+{
+	/**
+	 * A page being served
+	 */
+	private static class Page
+	{
+		final byte[]	body;
+		final String	etag;
+		final String	lastModified;
+		final int		status;
+
+		Page(byte[] body, String etag, String lastModified, int status)
+		{
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.status = status;
+		}
+	}
+
+	private final HttpServer		server;
+	private final Map<String, Page>	pages		= new ConcurrentHashMap<>();
+	private final List<Headers>		requests	= new CopyOnWriteArrayList<>();
+
+	StandInServer() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/**
+	 * @return the server's base URL, without trailing slash
+	 */
+	String getBaseUrl()
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Serve a fixture at path
+	 *
+	 * @param path
+	 *            e.g. "/node/123456"
+	 * @param fixture
+	 *            name of the file under the `ozb` test resources
+	 * @param etag
+	 *            the ETag to send, or null for none
+	 * @param lastModified
+	 *            the Last-Modified date to send, or null for none
+	 */
+	void serve(String path, String fixture, String etag, String lastModified)
+	{
+		pages.put(path, new Page(fixture(fixture), etag, lastModified, 200));
+	}
+
+	/**
+	 * Answer requests for path with an error status
+	 */
+	void fail(String path, int status)
+	{
+		pages.put(path, new Page(new byte[0], null, null, status));
+	}
+
+	/**
+	 * @return the headers of every request so far, oldest first
+	 */
+	List<Headers> getRequests()
+	{
+		return requests;
+	}
+
+	/**
+	 * @return the headers of the latest request
+	 */
+	Headers lastRequest()
+	{
+		return requests.get(requests.size() - 1);
+	}
+
+	/**
+	 * Read a fixture from the test resources
+	 *
+	 * @param name
+	 *            name of the file under `ozb`
+	 * @return its contents
+	 */
+	static byte[] fixture(String name)
+	{
+		try (InputStream in = StandInServer.class
+				.getResourceAsStream("/ozb/" + name))
+		{
+			if (in == null)
+			{
+				throw new IllegalArgumentException("No fixture " + name);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * @return a fixture's contents as a string
+	 */
+	static String fixtureText(String name)
+	{
+		return new String(fixture(name), StandardCharsets.UTF_8);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		requests.add(exchange.getRequestHeaders());
+		Page page = pages.get(exchange.getRequestURI().getPath());
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			if (page == null || page.status != 200)
+			{
+				exchange.sendResponseHeaders(page == null ? 404 : page.status,
+						-1);
+				return;
+			}
+
+			Headers request = exchange.getRequestHeaders();
+			String ifNoneMatch = request.getFirst("If-None-Match");
+			String ifModifiedSince = request.getFirst("If-Modified-Since");
+			boolean unchanged = ifNoneMatch != null
+					? ifNoneMatch.equals(page.etag)
+					: ifModifiedSince != null
+							&& ifModifiedSince.equals(page.lastModified);
+
+			Headers response = exchange.getResponseHeaders();
+			if (page.etag != null)
+			{
+				response.set("ETag", page.etag);
+			}
+			if (page.lastModified != null)
+			{
+				response.set("Last-Modified", page.lastModified);
+			}
+			if (unchanged)
+			{
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			response.set("Content-Type", "text/html; charset=utf-8");
+			exchange.sendResponseHeaders(200, page.body.length);
+			out.write(page.body);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		server.stop(0);
+	}
+}
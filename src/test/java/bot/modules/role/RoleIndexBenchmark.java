@@ -0,0 +1,178 @@
+package bot.modules.role;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Role;
+
+/**
+ * Times `role addN` with 50 arguments in a guild of 250 roles, resolving the
+ * names through RoleIndex against the scans it replaced: each argument looked
+ * for in guild.getRoles(), then fetched again with getRolesByName. The guild
+ * copies and sorts its roles on every getRoles() as JDA's does. Not run as
+ * part of the tests; run its main method, optionally with the number of
+ * rounds
+ *
+ * @author Namdrib
+ *
+ */
+public class RoleIndexBenchmark
+{
+	private static final int	roleCount		= 250;
+	private static final int	argumentCount	= 50;
+
+	private static int			sink;
+
+	public static void main(String[] args)
+	{
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+		List<Role> roles = new ArrayList<>();
+		for (int i = 0; i < roleCount; i++)
+		{
+			roles.add(role(i, "Role " + i));
+		}
+		Guild guild = guild(roles);
+
+		// Arguments spread over the roles, with a few that don't exist
+		List<String> arguments = new ArrayList<>();
+		for (int i = 0; i < argumentCount; i++)
+		{
+			arguments.add(i % 10 == 9 ? "Missing " + i
+					: "Role " + (i * 37 % roleCount));
+		}
+
+		RoleIndex index = new RoleIndex();
+		for (int i = 0; i < 3; i++)
+		{
+			scan(guild, arguments, rounds);
+			lookUp(index, guild, arguments, rounds);
+		}
+
+		long start = System.nanoTime();
+		scan(guild, arguments, rounds);
+		long scanned = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		lookUp(index, guild, arguments, rounds);
+		long indexed = System.nanoTime() - start;
+
+		System.out.printf(
+				"addN of %d names among %d roles: scanning %.1f us, RoleIndex %.1f us (%d)%n",
+				argumentCount, roleCount, scanned / 1e3 / rounds,
+				indexed / 1e3 / rounds, sink);
+	}
+
+	/**
+	 * Resolve the arguments as addN and addRoles used to
+	 */
+	private static void scan(Guild guild, List<String> arguments, int rounds)
+	{
+		for (int r = 0; r < rounds; r++)
+		{
+			List<String> names = new ArrayList<>();
+			List<Role> allRoles = guild.getRoles();
+			for (String argument : arguments)
+			{
+				for (Role role : allRoles)
+				{
+					if (argument.equals(role.getName()))
+					{
+						names.add(role.getName());
+						break;
+					}
+				}
+			}
+			List<Role> found = new ArrayList<>();
+			for (String name : names)
+			{
+				found.add(guild.getRolesByName(name, false).get(0));
+			}
+			sink += found.size();
+		}
+	}
+
+	/**
+	 * Resolve the arguments through the index
+	 */
+	private static void lookUp(RoleIndex index, Guild guild,
+			List<String> arguments, int rounds)
+	{
+		for (int r = 0; r < rounds; r++)
+		{
+			List<Role> found = new ArrayList<>();
+			for (String argument : arguments)
+			{
+				Role role = index.get(guild, argument);
+				if (role != null)
+				{
+					found.add(role);
+				}
+			}
+			sink += found.size();
+		}
+	}
+
+	private static Role role(int position, String name)
+	{
+		InvocationHandler handler = (proxy, method, args) -> {
+			switch (method.getName())
+			{
+				case "getName":
+					return name;
+				case "getPosition":
+					return position;
+				case "getIdLong":
+					return (long) position;
+				case "hashCode":
+					return position;
+				case "equals":
+					return proxy == args[0];
+				default:
+					return null;
+			}
+		};
+		return (Role) Proxy.newProxyInstance(Role.class.getClassLoader(),
+				new Class<?>[] { Role.class }, handler);
+	}
+
+	private static Guild guild(List<Role> roles)
+	{
+		InvocationHandler handler = (proxy, method, args) -> {
+			switch (method.getName())
+			{
+				case "getIdLong":
+					return 1L;
+				case "getRoles":
+					return sorted(roles);
+				case "getRolesByName":
+					return sorted(roles).stream()
+							.filter(r -> r.getName().equals(args[0]))
+							.collect(Collectors.toList());
+				case "hashCode":
+					return 1;
+				case "equals":
+					return proxy == args[0];
+				default:
+					return null;
+			}
+		};
+		return (Guild) Proxy.newProxyInstance(Guild.class.getClassLoader(),
+				new Class<?>[] { Guild.class }, handler);
+	}
+
+	/**
+	 * @return a copy of roles, highest first, as JDA hands them out
+	 */
+	private static List<Role> sorted(List<Role> roles)
+	{
+		List<Role> copy = new ArrayList<>(roles);
+		copy.sort(Comparator.comparingInt(Role::getPosition).reversed());
+		return copy;
+	}
+}
@@ -0,0 +1,133 @@
+package bot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks how Outbox.pack joins and splits messages
+ *
+ * @author Namdrib
+ *
+ */
+class OutboxTest
+{
+	private static int fences(String s)
+	{
+		int count = 0;
+		for (int at = s.indexOf("```"); at >= 0; at = s.indexOf("```",
+				at + 3))
+		{
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Check every message fits and leaves no code block open
+	 */
+	private static void assertFitAndBalanced(List<String> messages,
+			int limit)
+	{
+		for (String msg : messages)
+		{
+			assertTrue(msg.length() <= limit, msg.length() + ": " + msg);
+			assertEquals(0, fences(msg) % 2, msg);
+		}
+	}
+
+	@Test
+	void shortPartsAreJoined()
+	{
+		assertEquals(Collections.singletonList("one\ntwo\nthree"),
+				Outbox.pack(Arrays.asList("one", "two", "three"), 2000));
+		assertEquals(Arrays.asList("aaaa\nbbbb", "cccc"),
+				Outbox.pack(Arrays.asList("aaaa", "bbbb", "cccc"), 10));
+	}
+
+	@Test
+	void longTableIsSplitBetweenLinesInsideCodeBlocks()
+	{
+		StringBuilder table = new StringBuilder("Roles\n```\n");
+		List<String> rows = new ArrayList<>();
+		for (int i = 0; i < 200; i++)
+		{
+			String row = String.format("%-20s | %5d", "Role " + i, i * 7);
+			rows.add(row);
+			table.append(row).append('\n');
+		}
+		table.append("```");
+
+		List<String> messages = Outbox.pack(
+				Collections.singletonList(table.toString()), 2000);
+		assertTrue(messages.size() > 1);
+		assertFitAndBalanced(messages, 2000);
+
+		// Every row survives whole, in order
+		List<String> seen = new ArrayList<>();
+		for (String msg : messages)
+		{
+			for (String line : msg.split("\n"))
+			{
+				if (line.startsWith("Role "))
+				{
+					seen.add(line);
+				}
+			}
+		}
+		assertEquals(rows, seen);
+	}
+
+	@Test
+	void codeBlockIsReopenedWithItsLanguage()
+	{
+		String text = "```java\n" + String.join("\n",
+				Collections.nCopies(10, "int x = 0;")) + "\n```";
+		List<String> messages = Outbox.pack(Collections.singletonList(text),
+				60);
+		assertTrue(messages.size() > 1);
+		assertFitAndBalanced(messages, 60);
+		for (String msg : messages)
+		{
+			assertTrue(msg.startsWith("```java\n"), msg);
+			assertTrue(msg.endsWith("\n```"), msg);
+		}
+	}
+
+	@Test
+	void overlongLineIsCut()
+	{
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 50; i++)
+		{
+			line.append("0123456789");
+		}
+		String text = "```\n" + line + "\n```";
+		List<String> messages = Outbox.pack(Collections.singletonList(text),
+				100);
+		assertFitAndBalanced(messages, 100);
+
+		StringBuilder joined = new StringBuilder();
+		for (String msg : messages)
+		{
+			joined.append(msg.replace("```", "").replace("\n", ""));
+		}
+		assertEquals(line.toString(), joined.toString());
+	}
+
+	@Test
+	void textOutsideCodeBlocksIsSplitAtNewlines()
+	{
+		String text = "first line here\nsecond line here\nthird line here";
+		assertEquals(
+				Arrays.asList("first line here\nsecond line here",
+						"third line here"),
+				Outbox.pack(Collections.singletonList(text), 35));
+	}
+}
@@ -0,0 +1,86 @@
+package bot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks Pager's page boundaries with the default 50 items per page
+ *
+ * @author Namdrib
+ *
+ */
+class PagerTest
+{
+	private static final String more = "@bot role listAll";
+
+	private static List<String> names(int count, int length)
+	{
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			StringBuilder name = new StringBuilder(String.format("%03d", i));
+			while (name.length() < length)
+			{
+				name.append('x');
+			}
+			names.add(name.toString());
+		}
+		return names;
+	}
+
+	/**
+	 * @return the items on a rendered page
+	 */
+	private static List<String> itemsOn(String page)
+	{
+		return Arrays.asList(page.split("\n")[1].split(", "));
+	}
+
+	@Test
+	void shortNamesFillPagesByCount()
+	{
+		List<String> names = names(120, 10);
+		String first = Pager.render("120 roles", names, 1, more);
+		assertTrue(first.startsWith("120 roles (page 1 of 3):\n"), first);
+		assertEquals(50, itemsOn(first).size());
+		assertTrue(first.endsWith("Next page: `" + more + " 2`"), first);
+
+		String last = Pager.render("120 roles", names, 3, more);
+		assertEquals(names.subList(100, 120), itemsOn(last));
+		assertEquals("120 roles has only 3 pages",
+				Pager.render("120 roles", names, 4, more));
+	}
+
+	@Test
+	void longNamesMakeShorterPages()
+	{
+		// 50 names of 100 characters would be over 5000 characters
+		List<String> names = names(120, 100);
+		List<String> seen = new ArrayList<>();
+		for (int page = 1;; page++)
+		{
+			String text = Pager.render("120 roles", names, page, more);
+			if (text.startsWith("120 roles has only"))
+			{
+				break;
+			}
+			assertTrue(text.length() <= Outbox.maxLength,
+					"page " + page + " is " + text.length());
+			seen.addAll(itemsOn(text));
+		}
+		assertEquals(names, seen);
+	}
+
+	@Test
+	void singleEmptyPage()
+	{
+		assertEquals("0 roles:\n",
+				Pager.render("0 roles", new ArrayList<>(), 1, more));
+	}
+}
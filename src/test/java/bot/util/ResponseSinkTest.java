@@ -0,0 +1,101 @@
+package bot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import bot.util.Helpers.ResponseSink;
+import net.dv8tion.jda.core.entities.MessageChannel;
+
+/**
+ * Checks that ResponseSink splits awkward responses into messages that fit
+ *
+ * @author Namdrib
+ *
+ */
+class ResponseSinkTest
+{
+	private static long						nextId	= 1000;
+
+	private final long						id		= nextId++;
+	private final List<String>				sent	= new CopyOnWriteArrayList<>();
+	private final MessageChannel			channel	= (MessageChannel) Proxy
+			.newProxyInstance(MessageChannel.class.getClassLoader(),
+					new Class<?>[] { MessageChannel.class },
+					(proxy, method, args) -> {
+						switch (method.getName())
+						{
+							case "getIdLong":
+								return id;
+							case "sendMessage":
+								sent.add(args[0].toString());
+								return null;
+							default:
+								return null;
+						}
+					});
+
+	private static String repeat(char c, int n)
+	{
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < n; i++)
+		{
+			s.append(c);
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Send everything out and wait for the messages to reach the channel
+	 *
+	 * @return all text sent, joined
+	 */
+	private String sendAll(ResponseSink sink, int expectedChars)
+			throws InterruptedException
+	{
+		sink.send();
+		Helpers.flush(channel);
+		for (int i = 0; i < 100; i++)
+		{
+			if (String.join("", sent).length() >= expectedChars)
+			{
+				break;
+			}
+			Thread.sleep(50);
+		}
+		for (String msg : sent)
+		{
+			assertTrue(msg.length() <= Outbox.maxLength,
+					"message of " + msg.length());
+		}
+		return String.join("\n", sent);
+	}
+
+	@Test
+	void longTitle() throws InterruptedException
+	{
+		String title = repeat('t', 1995);
+		ResponseSink sink = Helpers.sink(channel, title, "x.txt", true);
+		sink.line("first").line("second");
+
+		String all = sendAll(sink, title.length() + 11);
+		assertTrue(all.contains(title), all);
+		assertTrue(all.contains("first\nsecond"), all);
+	}
+
+	@Test
+	void longSingleLine() throws InterruptedException
+	{
+		String line = repeat('x', 4500);
+		ResponseSink sink = Helpers.sink(channel, "Title", "x.txt", true);
+		sink.line(line);
+
+		String all = sendAll(sink, line.length());
+		assertEquals(line, all.replaceAll("Title|```|\\n", ""));
+	}
+}
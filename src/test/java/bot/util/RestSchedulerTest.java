@@ -0,0 +1,74 @@
+package bot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import bot.util.RestScheduler.Priority;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+
+/**
+ * Checks that requests JDA refuses straight away fail their callers rather
+ * than being lost
+ *
+ * @author Namdrib
+ *
+ */
+class RestSchedulerTest
+{
+	/**
+	 * @return a channel the bot may not write in
+	 */
+	private static MessageChannel forbidden(long id)
+	{
+		return (MessageChannel) Proxy.newProxyInstance(
+				MessageChannel.class.getClassLoader(),
+				new Class<?>[] { MessageChannel.class },
+				(proxy, method, args) -> {
+					switch (method.getName())
+					{
+						case "getIdLong":
+							return id;
+						case "sendMessage":
+							throw new IllegalStateException("Cannot write");
+						default:
+							return null;
+					}
+				});
+	}
+
+	@Test
+	void refusedMessagesFailTheirFutures() throws Exception
+	{
+		// Other tests share the scheduler, so count from here
+		long before = refused();
+		CompletableFuture<Message> first = RestScheduler
+				.sendMessage(forbidden(1), "one", Priority.NORMAL);
+		CompletableFuture<Message> second = RestScheduler
+				.sendMessage(forbidden(2), "two", Priority.HIGH);
+
+		for (CompletableFuture<?> sent : new CompletableFuture<?>[] {
+				first, second })
+		{
+			ExecutionException ex = assertThrows(ExecutionException.class,
+					() -> sent.get(5, TimeUnit.SECONDS));
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+		assertEquals(before + 2, refused(), RestScheduler.stats());
+	}
+
+	private static long refused()
+	{
+		String stats = RestScheduler.stats();
+		return Long.parseLong(
+				stats.substring(stats.lastIndexOf("refused ") + 8).trim());
+	}
+}
@@ -0,0 +1,76 @@
+package bot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks TokenBucket's bursts, refunds and argument checks
+ *
+ * @author Namdrib
+ *
+ */
+class TokenBucketTest
+{
+	@Test
+	void burstThenEmpty()
+	{
+		// Slow enough that nothing refills during the test
+		TokenBucket bucket = new TokenBucket(3, 0.001);
+		assertTrue(bucket.tryTake());
+		assertTrue(bucket.tryTake());
+		assertTrue(bucket.tryTake());
+		assertFalse(bucket.tryTake());
+		assertTrue(bucket.nanosUntilAvailable() > 0);
+		assertFalse(bucket.isFull());
+	}
+
+	@Test
+	void givenBackTokenCanBeTakenAgain()
+	{
+		TokenBucket bucket = new TokenBucket(2, 0.001);
+		assertTrue(bucket.tryTake());
+		assertTrue(bucket.tryTake());
+		bucket.giveBack();
+		assertTrue(bucket.tryTake());
+		assertFalse(bucket.tryTake());
+
+		bucket.giveBack();
+		bucket.giveBack();
+		assertTrue(bucket.isFull());
+	}
+
+	@Test
+	void neverHoldsMoreThanCapacity()
+	{
+		TokenBucket bucket = new TokenBucket(2, 0.001);
+		bucket.giveBack();
+		bucket.giveBack();
+		int taken = 0;
+		while (bucket.tryTake())
+		{
+			taken++;
+		}
+		assertEquals(2, taken);
+	}
+
+	@Test
+	void rejectsRatesThatAreNotPositive()
+	{
+		assertThrows(IllegalArgumentException.class,
+				() -> new TokenBucket(5, 0));
+		assertThrows(IllegalArgumentException.class,
+				() -> new TokenBucket(5, -1));
+		assertThrows(IllegalArgumentException.class,
+				() -> new TokenBucket(5, Double.NaN));
+		assertThrows(IllegalArgumentException.class,
+				() -> new TokenBucket(5, Double.POSITIVE_INFINITY));
+		assertThrows(IllegalArgumentException.class,
+				() -> new TokenBucket(5, Double.MIN_VALUE));
+		assertThrows(IllegalArgumentException.class,
+				() -> new TokenBucket(0, 1));
+	}
+}
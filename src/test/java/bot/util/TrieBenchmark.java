@@ -0,0 +1,134 @@
+package bot.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Times routing messages to a module and command through Trie against the
+ * tokenising it replaced: a StringTokenizer over the content, a map lookup for
+ * the module, then toLowerCase and a scan of the module's command list. Not
+ * run as part of the tests; run its main method, optionally with the number
+ * of rounds
+ *
+ * @author Namdrib
+ *
+ */
+public class TrieBenchmark
+{
+	// The modules and commands as they were before the Trie
+	private static final Map<String, List<String>>	commandLists	= new HashMap<>();
+	static
+	{
+		commandLists.put("role",
+				new ArrayList<>(Arrays.asList("help", "list", "listall", "add",
+						"addn", "remove", "removen", "removeall", "create",
+						"createn", "memberswith")));
+		commandLists.put("ozb", new ArrayList<>(
+				Arrays.asList("help", "info", "stats", "watch", "unwatch")));
+		commandLists.put("stats",
+				new ArrayList<>(Arrays.asList("help", "show")));
+	}
+
+	// Content following the prefix, as a mix of hits and misses
+	private static final String[]					messages		= {
+			"role add Gamer", "role memberswith Moderators",
+			"ROLE AddN one two three four five", "ozb info 123456",
+			"ozb watch 654321 50", "stats show", "role nosuchcommand x",
+			"nosuchmodule help", "role removen a b c d e f g h i j" };
+
+	private static int								sink;
+
+	public static void main(String[] args)
+	{
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+		Trie<Trie<String>> modules = new Trie<>();
+		for (Map.Entry<String, List<String>> e : commandLists.entrySet())
+		{
+			Trie<String> commands = new Trie<>();
+			for (String command : e.getValue())
+			{
+				commands.put(command, command);
+			}
+			modules.put(e.getKey(), commands);
+		}
+
+		// Warm up both paths before timing them
+		for (int i = 0; i < 3; i++)
+		{
+			tokenise(rounds);
+			walk(modules, rounds);
+		}
+
+		long start = System.nanoTime();
+		tokenise(rounds);
+		long tokenised = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		walk(modules, rounds);
+		long walked = System.nanoTime() - start;
+
+		long routed = (long) rounds * messages.length;
+		System.out.printf(
+				"%d messages: StringTokenizer %.1f ns/message, Trie %.1f ns/message (%d)%n",
+				routed, (double) tokenised / routed, (double) walked / routed,
+				sink);
+	}
+
+	/**
+	 * Route every message the old way
+	 */
+	private static void tokenise(int rounds)
+	{
+		for (int r = 0; r < rounds; r++)
+		{
+			for (String message : messages)
+			{
+				StringTokenizer st = new StringTokenizer(message);
+				List<String> commandList = commandLists.get(st.nextToken());
+				if (commandList == null)
+				{
+					continue;
+				}
+				String command = st.hasMoreTokens()
+						? st.nextToken().toLowerCase() : null;
+				if (command != null && commandList.contains(command))
+				{
+					sink += command.length();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Route every message through the tries, in place
+	 */
+	private static void walk(Trie<Trie<String>> modules, int rounds)
+	{
+		for (int r = 0; r < rounds; r++)
+		{
+			for (String message : messages)
+			{
+				int moduleStart = Trie.skipSpace(message, 0);
+				int moduleEnd = Trie.wordEnd(message, moduleStart);
+				Trie<String> commands = modules.get(message, moduleStart,
+						moduleEnd);
+				if (commands == null)
+				{
+					continue;
+				}
+				int commandStart = Trie.skipSpace(message, moduleEnd);
+				String command = commands.get(message, commandStart,
+						Trie.wordEnd(message, commandStart));
+				if (command != null)
+				{
+					sink += command.length();
+				}
+			}
+		}
+	}
+}